@@ -0,0 +1,45 @@
+package com.shop.benchmark;
+
+import com.shop.collections.IntIntArrayMap;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Prints the heap taken by the lines of a basket, stored in the {@link IntIntArrayMap} baskets
+ * use and in the {@code HashMap} they used before, for baskets of several sizes. Lines are added
+ * one at a time as shoppers do, so the spare capacity left by growing the map is included.
+ * Boxed quantities shared from the Integer cache are counted once across all baskets.
+ */
+public class BasketFootprint {
+
+    private static final int BASKETS = 10_000;
+
+    private static final int CATALOG_SIZE = 100_000;
+
+    public static void main(String[] args) {
+        System.out.printf("%6s %16s %16s %8s %22s%n", "lines", "HashMap B/basket", "compact B/basket", "saved", "compact MB/1M baskets");
+        for (int lines : new int[]{1, 5, 20, 50}) {
+            long hashMap = bytesPerBasket(HashMap::new, lines);
+            long compact = bytesPerBasket(IntIntArrayMap::new, lines);
+            System.out.printf("%6d %16d %16d %7.0f%% %22.1f%n", lines, hashMap, compact,
+                    100.0 * (hashMap - compact) / hashMap, compact * 1_000_000 / 1024.0 / 1024.0);
+        }
+    }
+
+    private static long bytesPerBasket(Supplier<Map<Integer, Integer>> basket, int lines) {
+        Random random = new Random(42);
+        Object[] baskets = new Object[BASKETS];
+        for (int i = 0; i < BASKETS; i++) {
+            Map<Integer, Integer> items = basket.get();
+            while (items.size() < lines) {
+                items.merge(1 + random.nextInt(CATALOG_SIZE), 1 + random.nextInt(3), Integer::sum);
+            }
+            baskets[i] = items;
+        }
+        return GraphLayout.parseInstance(baskets).totalSize() / BASKETS;
+    }
+}
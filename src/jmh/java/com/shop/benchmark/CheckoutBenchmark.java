@@ -0,0 +1,85 @@
+package com.shop.benchmark;
+
+import com.shop.dto.CheckoutResponse;
+import com.shop.dto.UpdateBasketRequest;
+import com.shop.models.Product;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latency of the basket and store hot paths against a store populated by {@link StoreState}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CheckoutBenchmark {
+
+    @Benchmark
+    public void addProductToBasket(StoreState store) {
+        store.basketResource.addProductToBasket(UpdateBasketRequest.builder()
+                .userId(store.randomUserId())
+                .productId(store.randomProductId(ThreadLocalRandom.current()))
+                .quantity(1)
+                .build());
+    }
+
+    @Benchmark
+    public BigDecimal calculatePriceInBasket(StoreState store) {
+        return store.basketResource.calculatePriceInBasket(store.randomUserId());
+    }
+
+    @Benchmark
+    public CheckoutResponse checkoutBasket(StoreState store, FilledBasket basket) {
+        return store.basketResource.checkoutBasket(basket.userId, null);
+    }
+
+    @Benchmark
+    public Integer createProduct(StoreState store, NewProduct product) {
+        return store.storeResource.createProduct(Product.builder()
+                .name("New product " + product.sequence.incrementAndGet())
+                .price(9.99)
+                .description("Created by benchmark")
+                .quantity(100)
+                .build());
+    }
+
+    /**
+     * Refills one basket before every checkout, outside of the measured time.
+     */
+    @State(Scope.Thread)
+    public static class FilledBasket {
+
+        private final Random random = new Random();
+
+        int userId;
+
+        @Setup(Level.Invocation)
+        public void fill(StoreState store) {
+            userId = store.randomUserId();
+            store.fillBasket(userId, random);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class NewProduct {
+
+        final AtomicInteger sequence = new AtomicInteger();
+    }
+}
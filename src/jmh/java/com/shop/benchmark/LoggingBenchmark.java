@@ -0,0 +1,121 @@
+package com.shop.benchmark;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.OutputStreamAppender;
+import com.shop.dto.UpdateBasketRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+
+import java.io.OutputStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of adding to a basket depending on how its per-request message is logged:
+ * <ul>
+ *     <li>{@code guarded}: the default INFO level, where the DEBUG message is skipped by its level check</li>
+ *     <li>{@code sync}: logged on every request, formatted and written on the request thread</li>
+ *     <li>{@code async}: logged on every request through the queue of an {@link AsyncAppender}</li>
+ * </ul>
+ * Messages are written to a stream that discards them, so the numbers show the cost of
+ * logging itself rather than of a terminal or disk.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class LoggingBenchmark {
+
+    @Benchmark
+    public void addProductToBasket(LoggedStore logged) {
+        StoreState store = logged.store;
+        store.basketResource.addProductToBasket(UpdateBasketRequest.builder()
+                .userId(store.randomUserId())
+                .productId(store.randomProductId(ThreadLocalRandom.current()))
+                .quantity(1)
+                .build());
+    }
+
+    @State(Scope.Benchmark)
+    public static class LoggedStore {
+
+        @Param({"guarded", "sync", "async"})
+        String logging;
+
+        StoreState store;
+
+        private Logger logger;
+
+        private Appender<ILoggingEvent> appender;
+
+        @Setup
+        public void setUp() {
+            store = new StoreState();
+            store.catalogSize = 1000;
+            store.baskets = 10000;
+            store.lines = 5;
+            store.deals = 0;
+            store.setUp();
+
+            LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+            PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+            encoder.setContext(context);
+            encoder.setPattern("%d{yyyy-MM-dd HH:mm:ss.SSS} %5level [%thread] %logger : %msg%n");
+            encoder.start();
+            OutputStreamAppender<ILoggingEvent> discard = new OutputStreamAppender<>();
+            discard.setContext(context);
+            discard.setEncoder(encoder);
+            discard.setOutputStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                }
+            });
+            discard.start();
+            appender = discard;
+            if ("async".equals(logging)) {
+                AsyncAppender async = new AsyncAppender();
+                async.setContext(context);
+                async.setQueueSize(8192);
+                async.setNeverBlock(true);
+                async.addAppender(discard);
+                async.start();
+                appender = async;
+            }
+
+            logger = context.getLogger("com.shop.checkout");
+            logger.setAdditive(false);
+            logger.addAppender(appender);
+            logger.setLevel("guarded".equals(logging) ? Level.INFO : Level.DEBUG);
+        }
+
+        @TearDown
+        public void tearDown() {
+            logger.detachAppender(appender);
+            appender.stop();
+        }
+    }
+}
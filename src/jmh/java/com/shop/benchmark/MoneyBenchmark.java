@@ -0,0 +1,78 @@
+package com.shop.benchmark;
+
+import com.shop.pricing.Money;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the former double/BigDecimal basket total with the fixed-point long total.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoneyBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int lines;
+
+    double[] prices;
+
+    long[] pricesInMinorUnits;
+
+    int[] quantities;
+
+    double discount = 0.5;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        prices = new double[lines];
+        pricesInMinorUnits = new long[lines];
+        quantities = new int[lines];
+        for (int i = 0; i < lines; i++) {
+            prices[i] = (1 + random.nextInt(100_000)) / 100.0;
+            pricesInMinorUnits[i] = Money.toMinorUnits(prices[i]);
+            quantities[i] = 1 + random.nextInt(5);
+        }
+    }
+
+    @Benchmark
+    public BigDecimal bigDecimalTotal() {
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < lines; i++) {
+            total = total.add(BigDecimal.valueOf(prices[i] * quantities[i]));
+            if (quantities[i] >= 2) {
+                total = total.subtract(BigDecimal.valueOf(prices[i] * discount));
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public BigDecimal fixedPointTotal() {
+        long total = 0;
+        for (int i = 0; i < lines; i++) {
+            total += pricesInMinorUnits[i] * quantities[i];
+            if (quantities[i] >= 2) {
+                total -= Money.applyRate(pricesInMinorUnits[i], discount);
+            }
+        }
+        return Money.toBigDecimal(total);
+    }
+}
@@ -0,0 +1,96 @@
+package com.shop.benchmark;
+
+import com.shop.journal.JournalReplay;
+import com.shop.journal.StoreSnapshot;
+import com.shop.models.Product;
+import com.shop.pricing.PromotionEngine;
+import com.shop.store.BasketRepository;
+import com.shop.store.ProductCatalog;
+import com.shop.store.ProductImporter;
+import com.shop.store.StockReservations;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares rebuilding the catalog from a binary snapshot with importing the same products
+ * from JSON.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RestoreBenchmark {
+
+    @Param({"10000", "100000"})
+    int catalogSize;
+
+    byte[] snapshot;
+
+    String json;
+
+    @Setup
+    public void setUp() throws IOException {
+        ProductCatalog catalog = new ProductCatalog(catalogSize);
+        StringBuilder products = new StringBuilder("[");
+        for (int id = 1; id <= catalogSize; id++) {
+            Product product = Product.builder()
+                    .id(id)
+                    .name("Product " + id)
+                    .price(id / 100.0)
+                    .description("Description of product " + id)
+                    .quantity(1000)
+                    .build();
+            catalog.add(product);
+            products.append(id > 1 ? "," : "")
+                    .append("{\"id\":").append(id)
+                    .append(",\"name\":\"").append(product.getName())
+                    .append("\",\"price\":").append(product.getPrice())
+                    .append(",\"description\":\"").append(product.getDescription())
+                    .append("\",\"quantity\":").append(product.getQuantity())
+                    .append("}");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            new StoreSnapshot(catalog, new StockReservations(catalog), new BasketRepository(), new PromotionEngine(),
+                    new AtomicLong(catalogSize)).writeTo(out, () -> 0);
+        }
+        snapshot = bytes.toByteArray();
+        json = products.append("]").toString();
+    }
+
+    @Benchmark
+    public ProductCatalog restoreFromSnapshot() throws IOException {
+        ProductCatalog catalog = new ProductCatalog(catalogSize);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot))) {
+            StoreSnapshot.readFrom(in, new JournalReplay(catalog, new BasketRepository(), new PromotionEngine(), new AtomicLong()));
+        }
+        return catalog;
+    }
+
+    @Benchmark
+    public ProductCatalog importFromJson() throws IOException {
+        ProductCatalog catalog = new ProductCatalog(catalogSize);
+        new ProductImporter(catalog, new AtomicLong()).importFrom(new StringReader(json), 10_000);
+        return catalog;
+    }
+}
@@ -0,0 +1,110 @@
+package com.shop.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shop.checkout.BasketResource;
+import com.shop.checkout.IdempotencyCache;
+import com.shop.checkout.StoreMetrics;
+import com.shop.checkout.StoreResource;
+import com.shop.dto.UpdateBasketRequest;
+import com.shop.journal.Journal;
+import com.shop.models.Product;
+import com.shop.pricing.PriceQuoteCache;
+import com.shop.pricing.PromotionEngine;
+import com.shop.store.BasketRepository;
+import com.shop.store.ProductCatalog;
+import com.shop.store.ReservationReaper;
+import com.shop.store.StockReservations;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A populated store wired the same way as StoreConfiguration, shared by the hot path benchmarks.
+ */
+@State(Scope.Benchmark)
+public class StoreState {
+
+    static final int FIRST_USER_ID = 1_000_000;
+
+    // Large enough that benchmark iterations never run out of stock
+    static final int STOCK_PER_PRODUCT = 1_000_000_000;
+
+    @Param({"1000", "100000"})
+    int catalogSize;
+
+    @Param({"100", "10000"})
+    int baskets;
+
+    @Param({"5", "50"})
+    int lines;
+
+    @Param({"0", "1000"})
+    int deals;
+
+    AtomicLong counter;
+
+    BasketResource basketResource;
+
+    StoreResource storeResource;
+
+    @Setup
+    public void setUp() {
+        counter = new AtomicLong();
+        ProductCatalog catalog = new ProductCatalog(catalogSize);
+        for (int i = 0; i < catalogSize; i++) {
+            catalog.add(Product.builder()
+                    .id((int) counter.incrementAndGet())
+                    .name("Product " + i)
+                    .price(1 + i % 1000 + 0.99)
+                    .description("Benchmark product " + i)
+                    .quantity(STOCK_PER_PRODUCT)
+                    .build());
+        }
+        StockReservations stock = new StockReservations(catalog);
+        PromotionEngine promotions = new PromotionEngine();
+        PriceQuoteCache quotes = new PriceQuoteCache();
+        BasketRepository repository = new BasketRepository();
+        basketResource = new BasketResource(repository, catalog, stock, promotions, quotes, Journal.NONE,
+                new IdempotencyCache<>(1000, 1, TimeUnit.HOURS), ReservationReaper.disabled(),
+                new StoreMetrics(new SimpleMeterRegistry(), repository), new ObjectMapper());
+        storeResource = new StoreResource(catalog, stock, promotions, quotes, counter, Journal.NONE, new ObjectMapper());
+
+        Random random = new Random(42);
+        for (int i = 0; i < deals; i++) {
+            int productId = randomProductId(random);
+            if (i % 2 == 0) {
+                storeResource.applyDiscountDeal(productId, 0.5);
+            } else {
+                storeResource.applyBundleDeal(productId, randomProductId(random));
+            }
+        }
+        for (int userId = FIRST_USER_ID; userId < FIRST_USER_ID + baskets; userId++) {
+            fillBasket(userId, random);
+        }
+    }
+
+    void fillBasket(int userId, Random random) {
+        for (int line = 0; line < lines; line++) {
+            basketResource.addProductToBasket(UpdateBasketRequest.builder()
+                    .userId(userId)
+                    .productId(randomProductId(random))
+                    .quantity(1 + random.nextInt(3))
+                    .build());
+        }
+    }
+
+    int randomProductId(Random random) {
+        return 1 + random.nextInt(catalogSize);
+    }
+
+    int randomUserId() {
+        return FIRST_USER_ID + ThreadLocalRandom.current().nextInt(baskets);
+    }
+}
@@ -0,0 +1,72 @@
+package com.shop.load;
+
+import java.util.Arrays;
+
+/**
+ * Latency samples of one endpoint, recorded in nanoseconds by a single thread and merged at the end.
+ */
+class Latencies {
+
+    private long[] samples = new long[1024];
+
+    private int count;
+
+    private long rejected;
+
+    private long errors;
+
+    void record(long nanos) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = nanos;
+    }
+
+    void reject() {
+        rejected++;
+    }
+
+    void error() {
+        errors++;
+    }
+
+    int count() {
+        return count;
+    }
+
+    long errors() {
+        return errors;
+    }
+
+    void addAll(Latencies other) {
+        if (count + other.count > samples.length) {
+            samples = Arrays.copyOf(samples, count + other.count);
+        }
+        System.arraycopy(other.samples, 0, samples, count, other.count);
+        count += other.count;
+        rejected += other.rejected;
+        errors += other.errors;
+    }
+
+    String report(String endpoint, double seconds) {
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return String.format("%-18s %10d req %10.1f req/s  p50 %8.3f ms  p99 %8.3f ms  p999 %8.3f ms  max %8.3f ms  rejected %d  errors %d",
+                endpoint, count, count / seconds,
+                millis(percentile(sorted, 0.50)), millis(percentile(sorted, 0.99)),
+                millis(percentile(sorted, 0.999)), millis(count > 0 ? sorted[count - 1] : 0),
+                rejected, errors);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,392 @@
+package com.shop.load;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.shop.checkout.CheckoutApplication;
+import com.shop.store.PartitionedStockReservations;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts the checkout application on a random local port and drives shopper sessions against
+ * it: each session adds products to a basket, polls the price and checks out. Prints throughput
+ * and latency percentiles per endpoint, then verifies that no stock went negative and that every
+ * unit is either in stock, in a basket or checked out.
+ *
+ * <p>With {@code load.nodes} above 1 it starts that many applications on loopback ports as one
+ * cluster, each owning the stock of a slice of the products. Every user shops on one node, as
+ * behind a load balancer with sticky sessions, and adds of products owned by another node are
+ * reported separately to show the cost of forwarding the reservation. Stock is checked against
+ * the count kept by the owning node.
+ *
+ * <p>Configured through system properties, e.g. {@code gradlew loadTest -Dload.threads=32}:
+ * <ul>
+ *     <li>{@code load.threads} concurrent shoppers, default 16</li>
+ *     <li>{@code load.durationSeconds} measured run time, default 30</li>
+ *     <li>{@code load.warmupSeconds} unmeasured run time before that, default 5</li>
+ *     <li>{@code load.users} distinct basket owners, default 1000</li>
+ *     <li>{@code load.products} products created before the run, default 1000</li>
+ *     <li>{@code load.stock} initial stock of each product, default 10000</li>
+ *     <li>{@code load.addsPerSession} basket adds per session, default 5</li>
+ *     <li>{@code load.pricePolls} price requests per session, default 2</li>
+ *     <li>{@code load.checkoutPercent} share of sessions ending in checkout, default 50</li>
+ *     <li>{@code load.nodes} applications started as one cluster, default 1</li>
+ *     <li>{@code load.serverThreads} comma separated {@code store.server.threads} modes to run the
+ *     whole test with one after the other, printing their throughput side by side at the end,
+ *     e.g. {@code platform,virtual}; by default the application's own setting</li>
+ * </ul>
+ * Any other application property can be passed as {@code -Dload.app.<property>=<value>}.
+ */
+public class LoadTest {
+
+    private static final String ADD = "/basket/add";
+
+    private static final String REMOTE_ADD = "/basket/add remote";
+
+    private static final String PRICE = "/basket/price";
+
+    private static final String CHECKOUT = "/basket/checkout";
+
+    private final int threads = Integer.getInteger("load.threads", 16);
+
+    private final int durationSeconds = Integer.getInteger("load.durationSeconds", 30);
+
+    private final int warmupSeconds = Integer.getInteger("load.warmupSeconds", 5);
+
+    private final int users = Integer.getInteger("load.users", 1000);
+
+    private final int products = Integer.getInteger("load.products", 1000);
+
+    private final int stock = Integer.getInteger("load.stock", 10000);
+
+    private final int addsPerSession = Integer.getInteger("load.addsPerSession", 5);
+
+    private final int pricePolls = Integer.getInteger("load.pricePolls", 2);
+
+    private final int checkoutPercent = Integer.getInteger("load.checkoutPercent", 50);
+
+    private final int nodes = Integer.getInteger("load.nodes", 1);
+
+    // Base URL of each node, in node order
+    private final List<String> baseUrls = new ArrayList<>();
+
+    private final List<Integer> productIds = new ArrayList<>();
+
+    // Request thread mode of the application, or null to leave it to the application properties
+    private final String serverThreads;
+
+    private double requestsPerSecond;
+
+    static {
+        // Keep enough idle connections for every shopper thread
+        System.setProperty("http.maxConnections", String.valueOf(Math.max(5, Integer.getInteger("load.threads", 16))));
+    }
+
+    LoadTest(String serverThreads) {
+        this.serverThreads = serverThreads;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String modes = System.getProperty("load.serverThreads");
+        if (modes == null || modes.trim().isEmpty()) {
+            System.exit(new LoadTest(null).run() ? 0 : 1);
+        }
+        boolean valid = true;
+        Map<String, Double> requestsPerSecond = new LinkedHashMap<>();
+        for (String mode : modes.split(",")) {
+            System.out.printf("Running with %s request threads%n", mode.trim());
+            LoadTest test = new LoadTest(mode.trim());
+            valid &= test.run();
+            requestsPerSecond.put(mode.trim(), test.requestsPerSecond);
+        }
+        requestsPerSecond.forEach((mode, rate) -> System.out.printf("%-18s %10.1f req/s%n", mode, rate));
+        System.exit(valid ? 0 : 1);
+    }
+
+    boolean run() throws Exception {
+        List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+        try {
+            startNodes(contexts);
+            createProducts();
+            Map<Integer, Long> initialStock = stockByProduct();
+
+            // Units checked out leave the store, during warm-up as well as the measured run
+            Map<Integer, Long> checkedOut = new HashMap<>();
+            System.out.printf("Warming up for %d s with %d shoppers on %d nodes%n", warmupSeconds, threads, nodes);
+            collectCheckouts(drive(warmupSeconds), checkedOut);
+            System.out.printf("Measuring for %d s with %d shoppers on %d nodes%n", durationSeconds, threads, nodes);
+            long start = System.nanoTime();
+            List<Shopper> shoppers = drive(durationSeconds);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            collectCheckouts(shoppers, checkedOut);
+
+            Map<String, Latencies> results = new HashMap<>();
+            for (Shopper shopper : shoppers) {
+                shopper.latencies.forEach((endpoint, latencies) ->
+                        results.computeIfAbsent(endpoint, key -> new Latencies()).addAll(latencies));
+            }
+            long total = 0;
+            String[] endpoints = nodes > 1 ? new String[]{ADD, REMOTE_ADD, PRICE, CHECKOUT} : new String[]{ADD, PRICE, CHECKOUT};
+            for (String endpoint : endpoints) {
+                Latencies latencies = results.getOrDefault(endpoint, new Latencies());
+                total += latencies.count();
+                System.out.println(latencies.report(endpoint, seconds));
+            }
+            requestsPerSecond = total / seconds;
+            System.out.printf("%-18s %10d req %10.1f req/s%n", "total", total, requestsPerSecond);
+            return verifyInventory(initialStock, checkedOut);
+        } finally {
+            for (ConfigurableApplicationContext context : contexts) {
+                context.close();
+            }
+        }
+    }
+
+    private void startNodes(List<ConfigurableApplicationContext> contexts) throws IOException {
+        // Ports are picked up front, as every node needs the address of every other one
+        for (int node = 0; node < nodes; node++) {
+            baseUrls.add("http://localhost:" + (nodes > 1 ? freePort() : 0));
+        }
+        String journal = System.getProperty("load.journalDirectory");
+        for (int node = 0; node < nodes; node++) {
+            Map<String, Object> properties = applicationProperties();
+            if (serverThreads != null) {
+                properties.put("store.server.threads", serverThreads);
+            }
+            properties.put("server.port", baseUrls.get(node).substring(baseUrls.get(node).lastIndexOf(':') + 1));
+            if (nodes > 1) {
+                properties.put("store.cluster.nodes", String.join(",", baseUrls));
+                properties.put("store.cluster.node-index", String.valueOf(node));
+                properties.put("store.cluster.secret", "load-test");
+            }
+            // Start from an empty journal so earlier runs do not leak stock and baskets into this one
+            properties.put("store.journal.directory", journal != null
+                    ? Paths.get(journal, (serverThreads != null ? serverThreads + "-" : "") + "node-" + node).toString()
+                    : Files.createTempDirectory("load-journal").toString());
+            SpringApplication application = new SpringApplication(CheckoutApplication.class);
+            application.setDefaultProperties(properties);
+            ConfigurableApplicationContext context = application.run();
+            contexts.add(context);
+            baseUrls.set(node, "http://localhost:" + context.getEnvironment().getProperty("local.server.port"));
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private Map<String, Object> applicationProperties() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("logging.level.com.shop", "WARN");
+        System.getProperties().stringPropertyNames().stream()
+                .filter(name -> name.startsWith("load.app."))
+                .forEach(name -> properties.put(name.substring("load.app.".length()), System.getProperty(name)));
+        return properties;
+    }
+
+    // Every node gets the same products in the same order, so they are given the same IDs
+    private void createProducts() throws IOException {
+        long suffix = System.nanoTime();
+        for (int i = 0; i < products; i++) {
+            String body = String.format("{\"name\": \"Load product %d-%d\", \"price\": %d.99, \"description\": \"Load test product\", \"quantity\": %d}",
+                    suffix, i, 1 + i % 500, stock);
+            Integer productId = null;
+            for (String node : baseUrls) {
+                int id = Integer.parseInt(request(node, "POST", "/store/product/add", "application/json", body).body.trim());
+                if (productId != null && id != productId) {
+                    throw new IllegalStateException("Nodes gave product IDs " + productId + " and " + id + " to the same product");
+                }
+                productId = id;
+            }
+            productIds.add(productId);
+        }
+    }
+
+    private List<Shopper> drive(int seconds) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Shopper>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> new Shopper().shopUntil(deadline)));
+        }
+        List<Shopper> shoppers = new ArrayList<>();
+        for (Future<Shopper> future : futures) {
+            shoppers.add(future.get());
+        }
+        executor.shutdown();
+        return shoppers;
+    }
+
+    private static void collectCheckouts(List<Shopper> shoppers, Map<Integer, Long> checkedOut) {
+        for (Shopper shopper : shoppers) {
+            shopper.checkedOut.forEach((productId, quantity) -> checkedOut.merge(productId, quantity, Long::sum));
+        }
+    }
+
+    private boolean verifyInventory(Map<Integer, Long> initialStock, Map<Integer, Long> checkedOut) throws IOException {
+        Map<Integer, Long> finalStock = stockByProduct();
+        Map<Integer, Long> inBaskets = new HashMap<>();
+        for (String node : baseUrls) {
+            for (JsonElement basket : JsonParser.parseString(request(node, "GET", "/basket/all", null, null).body).getAsJsonArray()) {
+                for (Map.Entry<String, JsonElement> item : basket.getAsJsonObject().getAsJsonObject("items").entrySet()) {
+                    inBaskets.merge(Integer.parseInt(item.getKey()), item.getValue().getAsLong(), Long::sum);
+                }
+            }
+        }
+        boolean valid = true;
+        for (Map.Entry<Integer, Long> entry : finalStock.entrySet()) {
+            int productId = entry.getKey();
+            if (entry.getValue() < 0) {
+                System.out.printf("FAILED: product %d has negative stock %d%n", productId, entry.getValue());
+                valid = false;
+            }
+            long accounted = entry.getValue() + inBaskets.getOrDefault(productId, 0L)
+                    + checkedOut.getOrDefault(productId, 0L);
+            long initial = initialStock.getOrDefault(productId, 0L);
+            if (productIds.contains(productId) && accounted != initial) {
+                System.out.printf("FAILED: product %d started with %d units but %d are accounted for%n", productId, initial, accounted);
+                valid = false;
+            }
+        }
+        System.out.println(valid ? "Inventory invariants hold" : "Inventory invariants violated");
+        return valid;
+    }
+
+    // Stock as counted by the node that owns each product
+    private Map<Integer, Long> stockByProduct() throws IOException {
+        Map<Integer, Long> stockByProduct = new HashMap<>();
+        for (int node = 0; node < nodes; node++) {
+            for (JsonElement product : JsonParser.parseString(request(baseUrls.get(node), "GET", "/store/products", null, null).body).getAsJsonArray()) {
+                JsonObject object = product.getAsJsonObject();
+                int productId = object.get("id").getAsInt();
+                if (PartitionedStockReservations.ownerOf(productId, nodes) == node) {
+                    stockByProduct.put(productId, object.get("quantity").getAsLong());
+                }
+            }
+        }
+        return stockByProduct;
+    }
+
+    private Response request(String node, String method, String path, String contentType, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(node + path).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", contentType);
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream input = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        if (input != null) {
+            try (InputStream in = input) {
+                byte[] buffer = new byte[8192];
+                for (int read; (read = in.read(buffer)) != -1; ) {
+                    content.write(buffer, 0, read);
+                }
+            }
+        }
+        return new Response(status, new String(content.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static class Response {
+
+        final int status;
+
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private class Shopper {
+
+        final Map<String, Latencies> latencies = new HashMap<>();
+
+        final Map<Integer, Long> checkedOut = new HashMap<>();
+
+        Shopper shopUntil(long deadline) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (System.nanoTime() < deadline) {
+                int userId = 1 + random.nextInt(users);
+                int node = userId % nodes;
+                String baseUrl = baseUrls.get(node);
+                for (int i = 0; i < addsPerSession; i++) {
+                    int productId = productIds.get(random.nextInt(productIds.size()));
+                    String body = String.format("{\"userId\": %d, \"productId\": %d, \"quantity\": %d}",
+                            userId, productId, 1 + random.nextInt(3));
+                    String endpoint = PartitionedStockReservations.ownerOf(productId, nodes) == node ? ADD : REMOTE_ADD;
+                    call(endpoint, baseUrl, "POST", ADD, "application/json", body);
+                }
+                for (int i = 0; i < pricePolls; i++) {
+                    call(PRICE, baseUrl, "GET", PRICE + "?userId=" + userId, null, null);
+                }
+                if (random.nextInt(100) < checkoutPercent) {
+                    Response response = call(CHECKOUT, baseUrl, "POST", CHECKOUT, "application/x-www-form-urlencoded", "userId=" + userId);
+                    if (response != null && response.status == 200) {
+                        recordCheckout(response.body);
+                    }
+                }
+            }
+            return this;
+        }
+
+        private void recordCheckout(String body) {
+            JsonObject checkout = JsonParser.parseString(body).getAsJsonObject();
+            for (String lines : new String[]{"purchases", "gifts"}) {
+                JsonArray products = checkout.getAsJsonArray(lines);
+                for (JsonElement product : products != null ? products : new JsonArray()) {
+                    JsonObject object = product.getAsJsonObject();
+                    checkedOut.merge(object.get("id").getAsInt(), object.get("quantity").getAsLong(), Long::sum);
+                }
+            }
+        }
+
+        private Response call(String endpoint, String node, String method, String path, String contentType, String body) {
+            Latencies endpointLatencies = latencies.computeIfAbsent(endpoint, key -> new Latencies());
+            long start = System.nanoTime();
+            try {
+                Response response = request(node, method, path, contentType, body);
+                endpointLatencies.record(System.nanoTime() - start);
+                if (response.status == 403 || response.status == 404) {
+                    endpointLatencies.reject();
+                } else if (response.status >= 400) {
+                    endpointLatencies.error();
+                }
+                return response;
+            } catch (IOException e) {
+                endpointLatencies.error();
+                return null;
+            }
+        }
+    }
+}
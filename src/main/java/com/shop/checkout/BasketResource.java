@@ -1,123 +1,289 @@
 package com.shop.checkout;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.shop.collections.IntIntArrayMap;
+import com.shop.dto.BasketBatchResult;
 import com.shop.dto.CheckoutResponse;
+import com.shop.dto.Page;
 import com.shop.dto.UpdateBasketRequest;
+import com.shop.journal.Journal;
 import com.shop.models.Basket;
 import com.shop.models.BundleDeal;
 import com.shop.models.DiscountDeal;
 import com.shop.models.Product;
+import com.shop.pricing.Money;
+import com.shop.pricing.PriceQuoteCache;
+import com.shop.pricing.PromotionEngine;
+import com.shop.store.BasketRepository;
+import com.shop.store.ProductCatalog;
+import com.shop.store.ReservationReaper;
+import com.shop.store.StockReservations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @ManagedResource
 @RequestMapping("basket")
 @ResponseBody
 public class BasketResource {
 
+    // Per-request messages are logged at DEBUG behind a level check, so with the default INFO
+    // level the hot paths neither box their arguments nor build varargs arrays
     final Logger logger = LoggerFactory.getLogger(BasketResource.class);
 
-    private List<Basket> baskets;
+    private final LogSampler stockRejectionLog = new LogSampler(1, TimeUnit.SECONDS);
 
-    private List<Product> products;
+    private BasketRepository baskets;
 
-    private List<DiscountDeal> discountDeals;
+    private ProductCatalog catalog;
 
-    private List<BundleDeal> bundleDeals;
+    private StockReservations stock;
 
-    public BasketResource(List<Basket> baskets,
-                          List<Product> products,
-                          List<DiscountDeal> discountDeals,
-                          List<BundleDeal> bundleDeals) {
+    private PromotionEngine promotions;
+
+    private PriceQuoteCache quotes;
+
+    private Journal journal;
+
+    private IdempotencyCache<CheckoutResponse> checkouts;
+
+    private ReservationReaper reaper;
+
+    private StoreMetrics metrics;
+
+    private ObjectWriter writer;
+
+    public BasketResource(BasketRepository baskets,
+                          ProductCatalog catalog,
+                          StockReservations stock,
+                          PromotionEngine promotions,
+                          PriceQuoteCache quotes,
+                          Journal journal,
+                          IdempotencyCache<CheckoutResponse> checkouts,
+                          ReservationReaper reaper,
+                          StoreMetrics metrics,
+                          ObjectMapper objectMapper) {
         this.baskets = baskets;
-        this.products = products;
-        this.discountDeals = discountDeals;
-        this.bundleDeals = bundleDeals;
+        this.catalog = catalog;
+        this.stock = stock;
+        this.promotions = promotions;
+        this.quotes = quotes;
+        this.journal = journal;
+        this.checkouts = checkouts;
+        this.reaper = reaper;
+        this.metrics = metrics;
+        this.writer = objectMapper.writer();
+    }
+
+    @ManagedAttribute(description = "Basket prices served from the quote cache")
+    public long getPriceQuoteHits(){
+        return quotes.getHits();
+    }
+
+    @ManagedAttribute(description = "Basket prices computed because no quote was cached")
+    public long getPriceQuoteMisses(){
+        return quotes.getMisses();
+    }
+
+    @ManagedAttribute(description = "Checkouts answered with the stored response of an earlier request with the same key")
+    public long getCheckoutReplays(){
+        return checkouts.getReplays();
     }
 
     @GetMapping("all")
     public List<Basket> getBaskets(){
-        logger.info("Getting list of baskets {}", baskets);
-        return baskets;
+        List<Basket> baskets = this.baskets.values();
+        logger.info("Getting list of {} baskets", baskets.size());
+        List<Basket> snapshots = new ArrayList<>(baskets.size());
+        for (Basket basket : baskets){
+            snapshots.add(snapshot(basket));
+        }
+        return snapshots;
+    }
+
+    @GetMapping("page")
+    public Page<Basket> getBasketPage(@RequestParam(defaultValue = "0") int after,
+                                      @RequestParam(defaultValue = "100") int limit){
+        if (logger.isDebugEnabled()){
+            logger.debug("Getting page of baskets after {}", after);
+        }
+        return Paging.page(this::snapshotPage, after, limit, Basket::getUserId);
+    }
+
+    @GetMapping(value = "stream", produces = Paging.NDJSON)
+    public StreamingResponseBody streamBaskets(){
+        logger.info("Streaming {} baskets", baskets.size());
+        return Paging.ndjson(writer, this::snapshotPage, Basket::getUserId);
     }
 
     @GetMapping("get")
     public Basket getBasket(@RequestParam int userId){
-        logger.info("Getting basket {}", userId);
-        Optional<Basket> basketMaybe = baskets.stream().filter(basket -> basket.getUserId().equals(userId)).findFirst();
-        if (basketMaybe.isPresent()){
-            return basketMaybe.get();
+        if (logger.isDebugEnabled()){
+            logger.debug("Getting basket {}", userId);
+        }
+        Basket basket = baskets.get(userId);
+        if (basket != null){
+            return snapshot(basket);
         } else {
             return Basket.builder()
                     .userId(userId)
-                    .items(new HashMap<>())
+                    .items(new IntIntArrayMap())
                     .build();
         }
     }
 
     @PostMapping("add")
     public void addProductToBasket(@RequestBody UpdateBasketRequest request){
-        logger.info("Adding {} units of product {} to basket {}", request.getQuantity(), request.getProductId(), request.getUserId());
-        Basket basket = getBasket(request.getUserId());
-        Product product = getProductIfExists(request.getProductId());
-        if (product.getQuantity() >= request.getQuantity()){
-            if (basket.getItems().get(request.getProductId()) != null){
-                int total = basket.getItems().get(request.getProductId()) + request.getQuantity();
-                basket.getItems().put(request.getProductId(), total);
-            } else {
-                basket.getItems().put(request.getProductId(), request.getQuantity());
-            }
-            if (!baskets.contains(basket)){
-                baskets.add(basket);
-            }
-            product.setQuantity(product.getQuantity() - request.getQuantity());
+        if (logger.isDebugEnabled()){
+            logger.debug("Adding {} units of product {} to basket {}", request.getQuantity(), request.getProductId(), request.getUserId());
+        }
+        if (request.getQuantity() == null || request.getQuantity() <= 0){
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Quantity must be positive");
+        }
+        getProductIfExists(request.getProductId());
+        if (stock.reserve(request.getProductId(), request.getQuantity())){
+            Basket basket = baskets.getOrCreate(request.getUserId());
+            synchronized (basket){
+                int quantity = basket.getItems().merge(request.getProductId(), request.getQuantity(), Integer::sum);
+                journal.basketLineChanged(request.getUserId(), request.getProductId(), quantity);
+                quotes.lineChanged(basket, request.getProductId(), this::linePriceInMinorUnits);
+                reaper.touch(basket);
+            }
+            metrics.reservedUnitsChanged(request.getQuantity());
+            journal.sync();
         } else {
-            logger.error("Failed to add {} units because there are only {} units", request.getQuantity(), product.getQuantity());
+            logStockRejection(request.getProductId(), request.getQuantity());
+            metrics.stockRejected("add");
             throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Insufficient product quantity");
         }
     }
 
+    @PostMapping(path = "batch", consumes = "application/json")
+    public List<BasketBatchResult> addProductsToBaskets(@RequestBody List<UpdateBasketRequest> requests){
+        if (logger.isDebugEnabled()){
+            logger.debug("Adding a batch of {} basket lines", requests.size());
+        }
+        // Checked before any line is applied, so a bad line rejects the whole batch
+        for (UpdateBasketRequest request : requests){
+            if (request.getUserId() == null || request.getProductId() == null || request.getQuantity() == null){
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "User ID, product ID and quantity are required");
+            }
+            if (request.getQuantity() <= 0){
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Quantity must be positive");
+            }
+        }
+        // User ID to product ID to quantity, keeping request order
+        Map<Integer, Map<Integer, Integer>> linesByUser = new LinkedHashMap<>();
+        for (UpdateBasketRequest request : requests){
+            linesByUser.computeIfAbsent(request.getUserId(), userId -> new LinkedHashMap<>())
+                    .merge(request.getProductId(), request.getQuantity(), Integer::sum);
+        }
+        List<BasketBatchResult> results = new ArrayList<>(linesByUser.size());
+        linesByUser.forEach((userId, lines) -> results.add(addLinesToBasket(userId, lines)));
+        journal.sync();
+        return results;
+    }
+
     @PutMapping("amend")
     public void updateProductInBasket(@RequestBody UpdateBasketRequest request){
-        logger.info("Changing units of product {} in basket {} to {}", request.getProductId(), request.getUserId(), request.getQuantity());
+        if (logger.isDebugEnabled()){
+            logger.debug("Changing units of product {} in basket {} to {}", request.getProductId(), request.getUserId(), request.getQuantity());
+        }
+        if (request.getQuantity() == null || request.getQuantity() < 0){
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Quantity must not be negative");
+        }
         Basket basket = getBasketIfExists(request.getUserId());
-        Product product = getProductIfExists(request.getProductId());
-        int quantityInBasket = (basket.getItems().get(request.getProductId()) != null)? basket.getItems().get(request.getProductId()): 0;
-        int quantityToAdd = request.getQuantity() - quantityInBasket;
-        if (product.getQuantity() >= quantityToAdd){
-            basket.getItems().put(request.getProductId(), request.getQuantity());
-            product.setQuantity(product.getQuantity() - quantityToAdd);
-        } else {
-            logger.error("Failed to add {} units because there are only {} units", quantityToAdd, product.getQuantity());
-            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Insufficient product quantity");
+        getProductIfExists(request.getProductId());
+        int productId = request.getProductId();
+        int quantity = request.getQuantity();
+        int quantityToAdd;
+        // Stock is reserved outside the basket monitor, as another node may own it. If the line
+        // changed meanwhile, the reservation is undone and the amend tried again.
+        while (true){
+            int quantityInBasket;
+            synchronized (basket){
+                quantityInBasket = basket.getItems().getOrDefault(productId, 0);
+                quantityToAdd = quantity - quantityInBasket;
+                if (quantityToAdd <= 0){
+                    amendLine(basket, productId, quantity);
+                    break;
+                }
+            }
+            if (!stock.reserve(productId, quantityToAdd)){
+                logStockRejection(productId, quantityToAdd);
+                metrics.stockRejected("amend");
+                throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Insufficient product quantity");
+            }
+            synchronized (basket){
+                if (basket.getItems().getOrDefault(productId, 0) == quantityInBasket){
+                    amendLine(basket, productId, quantity);
+                    break;
+                }
+            }
+            stock.release(productId, quantityToAdd);
         }
+        if (quantityToAdd < 0){
+            stock.release(productId, -quantityToAdd);
+        }
+        metrics.reservedUnitsChanged(quantityToAdd);
+        journal.sync();
     }
 
+    // Caller holds the basket monitor and has reserved or is about to release the difference
+    private void amendLine(Basket basket, int productId, int quantity){
+        // A line amended to zero is dropped, as journal replay does
+        if (quantity == 0){
+            basket.getItems().remove(productId);
+        } else {
+            basket.getItems().put(productId, quantity);
+        }
+        journal.basketLineChanged(basket.getUserId(), productId, quantity);
+        quotes.lineChanged(basket, productId, this::linePriceInMinorUnits);
+        reaper.touch(basket);
+    }
 
     @DeleteMapping("remove")
     public void removeProductInBasket(@RequestParam int productId, @RequestParam int userId){
-        logger.info("Removing product {} from basket {} ", productId, userId);
+        if (logger.isDebugEnabled()){
+            logger.debug("Removing product {} from basket {}", productId, userId);
+        }
         Basket basket = getBasketIfExists(userId);
-        Product product = getProductIfExists(productId);
-        Integer quantityRemoved = basket.getItems().remove(productId);
+        getProductIfExists(productId);
+        Integer quantityRemoved;
+        synchronized (basket){
+            quantityRemoved = basket.getItems().remove(productId);
+            if (quantityRemoved != null){
+                journal.basketLineChanged(userId, productId, 0);
+            }
+            quotes.lineChanged(basket, productId, this::linePriceInMinorUnits);
+            reaper.touch(basket);
+        }
         if (quantityRemoved != null){
-            product.setQuantity(product.getQuantity() + quantityRemoved);
+            stock.release(productId, quantityRemoved);
+            metrics.reservedUnitsChanged(-quantityRemoved);
+            journal.sync();
         } else {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Product Not Found In Basket");
         }
@@ -126,77 +292,232 @@ public class BasketResource {
     @GetMapping("price")
     public BigDecimal calculatePriceInBasket(@RequestParam int userId){
         Basket basket = getBasketIfExists(userId);
-        BigDecimal total = BigDecimal.ZERO;
-        for (int productId : basket.getItems().keySet()){
-            Product product = getProductIfExists(productId);
-            double price = product.getPrice();
-            total = total.add(BigDecimal.valueOf(price * basket.getItems().get(productId)));
-        }
-        for (DiscountDeal deal : discountDeals){
-            if (deal.isEligible(basket)){
-                total = total.subtract(BigDecimal.valueOf(deal.adjustment()));
-            }
+        synchronized (basket){
+            // Pricing counts as activity, so a shopper about to check out keeps their stock
+            reaper.touch(basket);
+            return Money.toBigDecimal(priceInMinorUnits(basket));
         }
-        return total;
     }
 
     @PostMapping("checkout")
-    public CheckoutResponse checkoutBasket(@RequestParam int userId){
+    public CheckoutResponse checkoutBasket(@RequestParam int userId,
+                                           @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey){
+        if (idempotencyKey == null){
+            return checkout(userId);
+        }
+        if (logger.isDebugEnabled()){
+            logger.debug("Checking out basket {} with key {}", userId, idempotencyKey);
+        }
+        // Keys are scoped to the user so one client cannot replay another's checkout
+        return checkouts.execute(userId + ":" + idempotencyKey, () -> checkout(userId));
+    }
+
+    // Everything is read and checked before stock or the basket change, so a failed checkout
+    // leaves both untouched. Gifts are reserved in one step outside the basket monitor, as
+    // another node may own their stock, and released again if the basket changed meanwhile.
+    private CheckoutResponse checkout(int userId){
         Basket basket = getBasketIfExists(userId);
-        BigDecimal total = calculatePriceInBasket(userId);
-        List<Product> purchases = new ArrayList<>();
-        List<Product> gifts = new ArrayList<>();
-        basket.getItems().keySet().stream()
-                .forEach(productId -> {
-                    Product product = getProductIfExists(productId);
-                    Product purchase = Product.builder()
-                            .id(productId)
-                            .name(product.getName())
-                            .price(product.getPrice())
-                            .description(product.getDescription())
-                            .quantity(basket.getItems().get(productId))
-                            .build();
-                    purchases.add(purchase);
-                });
-        bundleDeals.forEach(deal -> {
-            if (basket.getItems().keySet().contains(deal.getProduct().getId())){
-                Product gift = deal.getGift();
-                if (gift.getQuantity() >= 1){
-                    gifts.add(Product.builder()
-                            .id(gift.getId())
-                            .name(gift.getName())
-                            .price(gift.getPrice())
-                            .description(gift.getDescription())
-                            .quantity(1)
-                            .build());
-                    gift.setQuantity(gift.getQuantity() - 1);
-                } else {
-                    throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Bundle Gift Out of Stock");
+        PendingCheckout pending;
+        while (true){
+            synchronized (basket){
+                pending = prepareCheckout(basket);
+            }
+            if (!pending.giftUnits.isEmpty() && !reserveGifts(pending.giftUnits)){
+                long suppressed = stockRejectionLog.sample();
+                if (suppressed >= 0){
+                    logger.error("Failed to check out basket {} because a bundle gift is out of stock, {} similar rejections not logged", userId, suppressed);
+                }
+                metrics.stockRejected("checkout");
+                throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Bundle Gift Out of Stock");
+            }
+            synchronized (basket){
+                if (basket.getItems().equals(pending.items)){
+                    basket.clear();
+                    journal.basketCleared(userId);
+                    quotes.invalidateBasket(userId);
+                    reaper.touch(basket);
+                    metrics.reservedUnitsChanged(-pending.units);
+                    metrics.checkedOut(pending.total, pending.discounts, pending.response.getGifts().size());
+                    break;
                 }
+            }
+            pending.giftUnits.forEach(stock::release);
+        }
+        journal.sync();
+        return pending.response;
+    }
 
+    // Caller holds the basket monitor
+    private PendingCheckout prepareCheckout(Basket basket){
+        PendingCheckout pending = new PendingCheckout(basket);
+        pending.total = priceInMinorUnits(basket);
+        List<Product> purchases = new ArrayList<>(basket.getItems().size());
+        List<Product> gifts = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> item : basket.getItems().entrySet()){
+            Product product = getProductIfExists(item.getKey());
+            pending.units += item.getValue();
+            for (DiscountDeal deal : promotions.discountDealsFor(item.getKey())){
+                if (deal.isEligible(basket)){
+                    pending.discounts++;
+                }
+            }
+            purchases.add(Product.builder()
+                    .id(item.getKey())
+                    .name(product.getName())
+                    .priceInMinorUnits(product.getPriceInMinorUnits())
+                    .description(product.getDescription())
+                    .quantity(item.getValue())
+                    .build());
+            for (BundleDeal deal : promotions.bundleDealsFor(item.getKey())){
+                Product gift = deal.getGift();
+                pending.giftUnits.merge(gift.getId(), 1, Integer::sum);
+                gifts.add(Product.builder()
+                        .id(gift.getId())
+                        .name(gift.getName())
+                        .priceInMinorUnits(gift.getPriceInMinorUnits())
+                        .description(gift.getDescription())
+                        .quantity(1)
+                        .build());
             }
-        });
-        basket.clear();
-        return CheckoutResponse.builder()
-                .amount(total.doubleValue())
+        }
+        pending.response = CheckoutResponse.builder()
+                .amount(Money.toBigDecimal(pending.total))
                 .purchases(purchases)
                 .gifts(gifts)
                 .build();
+        return pending;
+    }
+
+    private boolean reserveGifts(Map<Integer, Integer> giftUnits){
+        int[] productIds = new int[giftUnits.size()];
+        int[] quantities = new int[giftUnits.size()];
+        int line = 0;
+        for (Map.Entry<Integer, Integer> gift : giftUnits.entrySet()){
+            productIds[line] = gift.getKey();
+            quantities[line++] = gift.getValue();
+        }
+        return stock.reserveAll(productIds, quantities);
+    }
+
+    private List<Basket> snapshotPage(int afterUserId, int limit) {
+        List<Basket> page = baskets.page(afterUserId, limit);
+        List<Basket> snapshots = new ArrayList<>(page.size());
+        for (Basket basket : page) {
+            snapshots.add(snapshot(basket));
+        }
+        return snapshots;
+    }
+
+    // Copies the basket under its lock so serialization never races a concurrent update
+    private Basket snapshot(Basket basket) {
+        synchronized (basket) {
+            return Basket.builder()
+                    .userId(basket.getUserId())
+                    .items(new IntIntArrayMap(basket.getItems()))
+                    .build();
+        }
+    }
+
+    private long priceInMinorUnits(Basket basket){
+        synchronized (basket){
+            Long total = quotes.quote(basket, this::linePriceInMinorUnits);
+            if (total == null){
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Product Not Found");
+            }
+            return total;
+        }
+    }
+
+    // Caller holds the basket monitor
+    private Long linePriceInMinorUnits(Basket basket, int productId){
+        Product product = catalog.get(productId);
+        if (product == null){
+            return null;
+        }
+        long total = product.getPriceInMinorUnits() * basket.getItems().getOrDefault(productId, 0);
+        for (DiscountDeal deal : promotions.discountDealsFor(productId)){
+            if (deal.isEligible(basket)){
+                total -= deal.adjustment(product.getPriceInMinorUnits());
+            }
+        }
+        return total;
+    }
+
+    private BasketBatchResult addLinesToBasket(int userId, Map<Integer, Integer> lines){
+        int[] productIds = new int[lines.size()];
+        int[] quantities = new int[lines.size()];
+        int line = 0;
+        for (Map.Entry<Integer, Integer> item : lines.entrySet()){
+            if (catalog.get(item.getKey()) == null){
+                return BasketBatchResult.builder().userId(userId).applied(false).reason("Product Not Found").build();
+            }
+            productIds[line] = item.getKey();
+            quantities[line++] = item.getValue();
+        }
+        if (!stock.reserveAll(productIds, quantities)){
+            long suppressed = stockRejectionLog.sample();
+            if (suppressed >= 0){
+                logger.error("Failed to add batch of {} lines to basket {} because of insufficient quantity, {} similar rejections not logged", lines.size(), userId, suppressed);
+            }
+            metrics.stockRejected("batch");
+            return BasketBatchResult.builder().userId(userId).applied(false).reason("Insufficient product quantity").build();
+        }
+        Basket basket = baskets.getOrCreate(userId);
+        synchronized (basket){
+            lines.forEach((productId, quantity) -> {
+                int inBasket = basket.getItems().merge(productId, quantity, Integer::sum);
+                journal.basketLineChanged(userId, productId, inBasket);
+                quotes.lineChanged(basket, productId, this::linePriceInMinorUnits);
+            });
+            reaper.touch(basket);
+        }
+        metrics.reservedUnitsChanged(Arrays.stream(quantities).sum());
+        return BasketBatchResult.builder().userId(userId).applied(true).build();
+    }
+
+    // Reads the stock count only for the sampled rejection that is logged
+    private void logStockRejection(int productId, int quantity){
+        long suppressed = stockRejectionLog.sample();
+        if (suppressed >= 0){
+            logger.error("Failed to add {} units of product {} because there are only {} units, {} similar rejections not logged",
+                    quantity, productId, catalog.quantityOf(productId), suppressed);
+        }
     }
 
     private Basket getBasketIfExists(int userId){
-        Optional<Basket> basketMaybe = baskets.stream().filter(x -> x.getUserId().equals(userId)).findFirst();
-        if (!basketMaybe.isPresent()){
+        Basket basket = baskets.get(userId);
+        if (basket == null){
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Basket Not Found");
         }
-        return basketMaybe.get();
+        return basket;
     }
 
     private Product getProductIfExists(int productId){
-        Optional<Product> productMaybe = products.stream().filter(x -> x.getId().equals(productId)).findFirst();
-        if (!productMaybe.isPresent()){
+        Product product = catalog.get(productId);
+        if (product == null){
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Product Not Found");
         }
-        return productMaybe.get();
+        return product;
+    }
+
+    // A checkout worked out under the basket monitor, applied only if the basket is unchanged
+    private static class PendingCheckout {
+
+        private final Map<Integer, Integer> items;
+
+        // Gift product ID to units, as several deals may give the same gift
+        private final Map<Integer, Integer> giftUnits = new LinkedHashMap<>();
+
+        private long total;
+
+        private int units;
+
+        private int discounts;
+
+        private CheckoutResponse response;
+
+        private PendingCheckout(Basket basket){
+            this.items = new IntIntArrayMap(basket.getItems());
+        }
     }
 }
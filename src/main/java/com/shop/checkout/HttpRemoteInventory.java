@@ -0,0 +1,48 @@
+package com.shop.checkout;
+
+import com.shop.dto.StockRequest;
+import com.shop.store.RemoteInventory;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.List;
+
+/**
+ * Calls the inventory endpoints of the other nodes, listed by their base URLs in node order,
+ * sending the secret the nodes share. Each call blocks for at most the connect and read
+ * timeouts of the template, then fails with a {@code RestClientException}.
+ */
+public class HttpRemoteInventory implements RemoteInventory {
+
+    private final List<String> nodes;
+
+    private final RestTemplate restTemplate;
+
+    private final String secret;
+
+    public HttpRemoteInventory(List<String> nodes, RestTemplate restTemplate, String secret) {
+        this.nodes = nodes;
+        this.restTemplate = restTemplate;
+        this.secret = secret;
+    }
+
+    @Override
+    public boolean reserveAll(int node, int[] productIds, int[] quantities) {
+        Boolean reserved = restTemplate.postForObject(nodes.get(node) + "/inventory/reserve",
+                request(productIds, quantities), Boolean.class);
+        return Boolean.TRUE.equals(reserved);
+    }
+
+    @Override
+    public void releaseAll(int node, int[] productIds, int[] quantities) {
+        restTemplate.postForObject(nodes.get(node) + "/inventory/release",
+                request(productIds, quantities), Void.class);
+    }
+
+    private HttpEntity<StockRequest> request(int[] productIds, int[] quantities) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(InventoryResource.SECRET_HEADER, secret);
+        return new HttpEntity<>(new StockRequest(productIds, quantities), headers);
+    }
+}
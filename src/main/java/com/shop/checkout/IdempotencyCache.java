@@ -0,0 +1,153 @@
+package com.shop.checkout;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Results of requests by idempotency key, so a retried request gets the result of the first
+ * attempt instead of running again. A retry that arrives while the first attempt is still
+ * running waits for it. Failed attempts are forgotten, so they can be retried.
+ *
+ * <p>Holds at most a fixed number of keys, dropping the oldest first, and forgets each key a
+ * fixed time after its first use. A key whose first attempt is still running is never dropped,
+ * so the limit can be exceeded while the oldest attempt runs.
+ */
+public class IdempotencyCache<T> {
+
+    private final ConcurrentMap<String, Entry<T>> entries = new ConcurrentHashMap<>();
+
+    // Entries in the order they were added, for eviction; guarded by itself
+    private final Queue<Entry<T>> order = new ArrayDeque<>();
+
+    private final int maxEntries;
+
+    // Queue length that triggers the next sweep; guarded by the queue
+    private int sweepAt;
+
+    private final long ttlNanos;
+
+    private final LongSupplier clock;
+
+    private final LongAdder replays = new LongAdder();
+
+    public IdempotencyCache(int maxEntries, long ttl, TimeUnit unit) {
+        this(maxEntries, ttl, unit, System::nanoTime);
+    }
+
+    IdempotencyCache(int maxEntries, long ttl, TimeUnit unit, LongSupplier clock) {
+        this.maxEntries = maxEntries;
+        this.sweepAt = 2 * maxEntries;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.clock = clock;
+    }
+
+    /**
+     * Runs the action unless it already ran, or is running, for the key.
+     *
+     * @return the result of the first successful run for the key
+     */
+    public T execute(String key, Supplier<T> action) {
+        long now = clock.getAsLong();
+        Entry<T> entry = new Entry<>(key, now);
+        Entry<T> existing;
+        while ((existing = entries.putIfAbsent(key, entry)) != null) {
+            if (now - existing.createdAt < ttlNanos) {
+                replays.increment();
+                return await(existing.result);
+            }
+            if (entries.remove(key, existing)) {
+                existing.dropped = true;
+            }
+        }
+        evictAndAdd(entry, now);
+        try {
+            T result = action.get();
+            entry.result.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            entry.dropped = true;
+            entries.remove(key, entry);
+            entry.result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    public long getReplays() {
+        return replays.sum();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    int queued() {
+        synchronized (order) {
+            return order.size();
+        }
+    }
+
+    private void evictAndAdd(Entry<T> entry, long now) {
+        synchronized (order) {
+            order.add(entry);
+            // Entries no longer in the map leave the queue when they reach its head; sweep them
+            // out early if they pile up behind an entry that is not due yet
+            if (order.size() > sweepAt) {
+                order.removeIf(queued -> queued.dropped);
+                sweepAt = Math.max(2 * maxEntries, 2 * order.size());
+            }
+            Entry<T> oldest;
+            while ((oldest = order.peek()) != null) {
+                if (!oldest.dropped) {
+                    boolean stale = entries.size() > maxEntries || now - oldest.createdAt >= ttlNanos;
+                    // Dropping a running attempt would let its retry run it again
+                    if (!stale || !oldest.result.isDone()) {
+                        break;
+                    }
+                }
+                order.poll();
+                entries.remove(oldest.key, oldest);
+            }
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the original request", e);
+        } catch (ExecutionException e) {
+            // Rethrow the original failure, e.g. its ResponseStatusException
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new CompletionException(e.getCause());
+        }
+    }
+
+    private static class Entry<T> {
+
+        final String key;
+
+        final long createdAt;
+
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        // Removed from the map, by failing or by expiring and being replaced, but still queued
+        volatile boolean dropped;
+
+        Entry(String key, long createdAt) {
+            this.key = key;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.shop.checkout;
+
+import com.shop.dto.StockRequest;
+import com.shop.journal.Journal;
+import com.shop.store.StockReservations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Stock of the products this node owns, called by the other nodes of a cluster. Only registered
+ * when a cluster is configured, and every call must carry the secret shared by the nodes in
+ * the {@value #SECRET_HEADER} header.
+ */
+@RequestMapping("inventory")
+@ResponseBody
+public class InventoryResource {
+
+    public static final String SECRET_HEADER = "X-Cluster-Secret";
+
+    final Logger logger = LoggerFactory.getLogger(InventoryResource.class);
+
+    private StockReservations stock;
+
+    private Journal journal;
+
+    private byte[] secret;
+
+    public InventoryResource(StockReservations stock, Journal journal, String secret) {
+        this.stock = stock;
+        this.journal = journal;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @PostMapping(path = "reserve", consumes = "application/json")
+    public boolean reserve(@RequestHeader(value = SECRET_HEADER, required = false) String secret,
+                           @RequestBody StockRequest request){
+        checkSecret(secret);
+        checkOwned(request);
+        boolean reserved = stock.reserveAll(request.getProductIds(), request.getQuantities());
+        journal.sync();
+        return reserved;
+    }
+
+    @PostMapping(path = "release", consumes = "application/json")
+    public void release(@RequestHeader(value = SECRET_HEADER, required = false) String secret,
+                        @RequestBody StockRequest request){
+        checkSecret(secret);
+        checkOwned(request);
+        for (int i = 0; i < request.getProductIds().length; i++){
+            stock.release(request.getProductIds()[i], request.getQuantities()[i]);
+        }
+        journal.sync();
+    }
+
+    private void checkSecret(String secret){
+        if (secret == null || !MessageDigest.isEqual(this.secret, secret.getBytes(StandardCharsets.UTF_8))){
+            logger.warn("Rejected stock request without the cluster secret");
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Cluster Secret Required");
+        }
+    }
+
+    // A request for another node's products means the nodes disagree on the cluster layout;
+    // forwarding it again could loop
+    private void checkOwned(StockRequest request){
+        if (request.getProductIds() == null || request.getQuantities() == null
+                || request.getProductIds().length != request.getQuantities().length){
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Product IDs and quantities must match");
+        }
+        for (int quantity : request.getQuantities()){
+            if (quantity <= 0){
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Quantities must be positive");
+            }
+        }
+        // Each ID is checked against its stock once, so a repeated one would oversell
+        int[] productIds = request.getProductIds().clone();
+        Arrays.sort(productIds);
+        for (int i = 1; i < productIds.length; i++){
+            if (productIds[i] == productIds[i - 1]){
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Product IDs must be distinct");
+            }
+        }
+        for (int productId : request.getProductIds()){
+            if (!stock.owns(productId)){
+                logger.error("Received stock request for product {} owned by another node", productId);
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "Product Not Owned By This Node");
+            }
+        }
+    }
+}
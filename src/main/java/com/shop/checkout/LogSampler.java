@@ -0,0 +1,35 @@
+package com.shop.checkout;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets at most one occurrence of a frequent event be logged per interval, e.g. stock rejections
+ * while a popular product sells out, and counts the ones left out in between.
+ */
+class LogSampler {
+
+    private final long intervalNanos;
+
+    private final AtomicLong nextLogAt = new AtomicLong(Long.MIN_VALUE);
+
+    private final AtomicLong suppressed = new AtomicLong();
+
+    LogSampler(long interval, TimeUnit unit) {
+        this.intervalNanos = unit.toNanos(interval);
+    }
+
+    /**
+     * @return the number of occurrences left out since the last one logged, or -1 if this
+     *         occurrence should not be logged
+     */
+    long sample() {
+        long now = System.nanoTime();
+        long next = nextLogAt.get();
+        if ((next == Long.MIN_VALUE || now - next >= 0) && nextLogAt.compareAndSet(next, now + intervalNanos)) {
+            return suppressed.getAndSet(0);
+        }
+        suppressed.incrementAndGet();
+        return -1;
+    }
+}
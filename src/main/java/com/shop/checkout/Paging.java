@@ -0,0 +1,70 @@
+package com.shop.checkout;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.shop.dto.Page;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.OutputStream;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Cursor-based paging shared by the listing endpoints. The cursor is the ID of the last item
+ * returned, so pages stay stable while items are added or removed elsewhere in the listing.
+ */
+final class Paging {
+
+    static final String NDJSON = "application/x-ndjson";
+
+    static final int MAX_PAGE_SIZE = 1000;
+
+    @FunctionalInterface
+    interface PageSource<T> {
+        List<T> page(int after, int limit);
+    }
+
+    private Paging() {
+    }
+
+    static int checkLimit(int limit) {
+        if (limit <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Limit must be positive");
+        }
+        return Math.min(limit, MAX_PAGE_SIZE);
+    }
+
+    static <T> Page<T> page(PageSource<T> source, int after, int limit, ToIntFunction<T> cursor) {
+        int pageSize = checkLimit(limit);
+        List<T> items = source.page(after, pageSize);
+        Integer nextCursor = items.size() < pageSize ? null : cursor.applyAsInt(items.get(items.size() - 1));
+        return Page.<T>builder()
+                .items(items)
+                .nextCursor(nextCursor)
+                .build();
+    }
+
+    /**
+     * Writes every item as one JSON object per line, fetching a page at a time so only one page
+     * is held in memory, and flushing after each page so the client receives it in chunks.
+     */
+    static <T> StreamingResponseBody ndjson(ObjectWriter writer, PageSource<T> source, ToIntFunction<T> cursor) {
+        return (OutputStream out) -> {
+            int after = Integer.MIN_VALUE;
+            List<T> items = source.page(after, MAX_PAGE_SIZE);
+            while (!items.isEmpty()) {
+                for (T item : items) {
+                    out.write(writer.writeValueAsBytes(item));
+                    out.write('\n');
+                }
+                out.flush();
+                if (items.size() < MAX_PAGE_SIZE) {
+                    break;
+                }
+                after = cursor.applyAsInt(items.get(items.size() - 1));
+                items = source.page(after, MAX_PAGE_SIZE);
+            }
+        };
+    }
+}
@@ -1,26 +1,55 @@
 package com.shop.checkout;
 
-import com.google.gson.Gson;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shop.dto.CheckoutResponse;
+import com.shop.dto.ImportReport;
 import com.shop.models.Basket;
-import com.shop.models.BundleDeal;
-import com.shop.models.DiscountDeal;
-import com.shop.models.Product;
+import com.shop.journal.Journal;
+import com.shop.journal.JournalReplay;
+import com.shop.journal.StoreSnapshot;
+import com.shop.journal.WriteAheadLog;
+import com.shop.pricing.PriceQuoteCache;
+import com.shop.pricing.PromotionEngine;
+import com.shop.store.BasketRepository;
+import com.shop.store.PartitionedStockReservations;
+import com.shop.store.ProductCatalog;
+import com.shop.store.ProductImporter;
+import com.shop.store.ReservationReaper;
+import com.shop.store.StockReservations;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.core.io.Resource;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
 
 import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.net.URL;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 @Configuration
 public class StoreConfiguration {
 
-    private URL res = getClass().getClassLoader().getResource("inventory.json");
+    private static final int INVENTORY_BATCH_SIZE = 10_000;
+
+    final Logger logger = LoggerFactory.getLogger(StoreConfiguration.class);
 
     @Bean
     public AtomicLong counter(){
@@ -28,47 +57,215 @@ public class StoreConfiguration {
     }
 
     @Bean
-    public List<Product> products(AtomicLong counter) throws FileNotFoundException {
-        BufferedReader reader = new BufferedReader(new FileReader(res.getPath()));
-        Product[] productArray = new Gson().fromJson(reader, Product[].class);
-        List<Product> products = new ArrayList<>();
-        for (Product product : Arrays.asList(productArray)){
-            Product.builder()
-                    .id(new Long(counter.incrementAndGet()).intValue())
-                    .name(product.getName())
-                    .quantity(product.getQuantity())
-                    .description(product.getDescription())
-                    .price(product.getPrice())
-                    .build();
-            products.add(product);
+    public Journal journal(@Value("${store.journal.directory:}") String directory,
+                           @Value("${store.journal.segment-size:67108864}") int segmentSize) throws IOException {
+        if (directory.isEmpty()){
+            logger.warn("Journal disabled, store state will be lost on restart");
+            return Journal.NONE;
+        }
+        return WriteAheadLog.open(Paths.get(directory), segmentSize);
+    }
+
+    @Bean
+    public BasketRepository baskets(){
+        return new BasketRepository();
+    }
+
+    @Bean
+    public ProductCatalog products(AtomicLong counter,
+                                   Journal journal,
+                                   BasketRepository baskets,
+                                   PromotionEngine promotionEngine,
+                                   @Value("${store.inventory.location:classpath:inventory.json}") Resource inventory,
+                                   @Value("${store.catalog.shards:64}") int shards) throws IOException {
+        ProductCatalog products = new ProductCatalog(16, shards, journal);
+        if (!journal.isEmpty()){
+            // The journal already holds the inventory along with every later change
+            long start = System.nanoTime();
+            journal.recover(new JournalReplay(products, baskets, promotionEngine, counter));
+            logger.info("Restored {} products and {} baskets from the journal in {} ms",
+                    products.size(), baskets.size(), (System.nanoTime() - start) / 1_000_000);
+            return products;
         }
+        try (Reader reader = new BufferedReader(new InputStreamReader(inventory.getInputStream(), StandardCharsets.UTF_8))){
+            ImportReport report = new ProductImporter(products, counter, journal).importFrom(reader, INVENTORY_BATCH_SIZE);
+            logger.info("Loaded {} products from {} in {} ms, skipped {} duplicate names",
+                    report.getImported(), inventory.getDescription(), report.getElapsedMillis(), report.getRejected());
+        }
+        journal.sync();
         return products;
     }
 
+    @Bean(destroyMethod = "shutdown")
+    public ScheduledExecutorService checkpoints(Journal journal,
+                                                ProductCatalog products,
+                                                StockReservations stockReservations,
+                                                BasketRepository baskets,
+                                                PromotionEngine promotionEngine,
+                                                AtomicLong counter,
+                                                @Value("${store.journal.checkpoint-interval-seconds:300}") long intervalSeconds){
+        ScheduledExecutorService checkpoints = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "journal-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (intervalSeconds > 0){
+            StoreSnapshot snapshot = new StoreSnapshot(products, stockReservations, baskets, promotionEngine, counter);
+            checkpoints.scheduleWithFixedDelay(() -> {
+                try {
+                    journal.checkpoint(snapshot);
+                } catch (IOException | RuntimeException e){
+                    // Keep the schedule going, the journal still holds every change
+                    logger.error("Failed to write journal checkpoint", e);
+                }
+            }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        }
+        return checkpoints;
+    }
+
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> requestThreads(@Value("${store.server.threads:platform}") String threads){
+        switch (threads){
+            case "platform":
+                return factory -> {};
+            case "virtual":
+                ExecutorService executor = VirtualThreads.newExecutor("http-virtual-");
+                logger.info("Running requests on virtual threads");
+                return factory -> factory.addConnectorCustomizers(connector -> connector.getProtocolHandler().setExecutor(executor));
+            default:
+                throw new IllegalArgumentException("Unknown store.server.threads " + threads + ", expected platform or virtual");
+        }
+    }
+
+    @Bean
+    public StockReservations stockReservations(ProductCatalog products,
+                                               Journal journal,
+                                               @Value("${store.cluster.nodes:}") String nodes,
+                                               @Value("${store.cluster.node-index:0}") int nodeIndex,
+                                               @Value("${store.cluster.timeout-millis:2000}") int timeoutMillis,
+                                               @Value("${store.cluster.secret:}") String secret){
+        if (nodes.isEmpty()){
+            return new StockReservations(products, journal);
+        }
+        if (secret.isEmpty()){
+            throw new IllegalStateException("store.cluster.secret must be set when store.cluster.nodes is");
+        }
+        List<String> nodeUrls = new ArrayList<>();
+        for (String node : nodes.split(",")){
+            nodeUrls.add(node.trim());
+        }
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(timeoutMillis);
+        requestFactory.setReadTimeout(timeoutMillis);
+        logger.info("Running as node {} of {}, owning the stock of product IDs equal to {} modulo {}",
+                nodeIndex, nodeUrls, nodeIndex, nodeUrls.size());
+        return new PartitionedStockReservations(products, journal, nodeIndex, nodeUrls.size(),
+                new HttpRemoteInventory(nodeUrls, new RestTemplate(requestFactory), secret));
+    }
+
+    @Bean
+    public PromotionEngine promotionEngine(Journal journal){
+        return new PromotionEngine(journal);
+    }
+
+    @Bean
+    public PriceQuoteCache priceQuoteCache(){
+        return new PriceQuoteCache();
+    }
+
+    // Created after the catalog, which restores baskets from the journal, so they are counted
+    @Bean
+    @DependsOn("products")
+    public StoreMetrics storeMetrics(MeterRegistry meterRegistry, BasketRepository baskets){
+        return new StoreMetrics(meterRegistry, baskets);
+    }
+
+    @Bean
+    public ReservationReaper reservationReaper(BasketRepository baskets,
+                                               ProductCatalog products,
+                                               StockReservations stockReservations,
+                                               PriceQuoteCache priceQuoteCache,
+                                               StoreMetrics storeMetrics,
+                                               Journal journal,
+                                               @Value("${store.basket.reservation-ttl-seconds:1800}") long ttlSeconds){
+        if (ttlSeconds <= 0){
+            return ReservationReaper.disabled();
+        }
+        ReservationReaper reaper = new ReservationReaper(baskets, stockReservations, journal,
+                (userId, units) -> {
+                    priceQuoteCache.invalidateBasket(userId);
+                    storeMetrics.reservedUnitsChanged(-units);
+                }, ttlSeconds, 1, TimeUnit.SECONDS);
+        // Baskets restored from the journal get a full TTL from startup
+        for (Basket basket : baskets.values()){
+            synchronized (basket){
+                reaper.touch(basket);
+            }
+        }
+        return reaper;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ScheduledExecutorService reservationExpiry(ReservationReaper reservationReaper){
+        ScheduledExecutorService expiry = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "reservation-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (reservationReaper.isEnabled()){
+            expiry.scheduleWithFixedDelay(() -> {
+                try {
+                    int released = reservationReaper.advance();
+                    if (released > 0){
+                        logger.info("Released stock of {} idle baskets", released);
+                    }
+                } catch (RuntimeException e){
+                    logger.error("Failed to release idle baskets", e);
+                }
+            }, 1, 1, TimeUnit.SECONDS);
+        }
+        return expiry;
+    }
+
     @Bean
-    public List<DiscountDeal> discountDeals(){
-        return new ArrayList<>();
+    public IdempotencyCache<CheckoutResponse> checkoutResponses(@Value("${store.checkout.idempotency.max-keys:100000}") int maxKeys,
+                                                                @Value("${store.checkout.idempotency.ttl-seconds:86400}") long ttlSeconds){
+        return new IdempotencyCache<>(maxKeys, ttlSeconds, TimeUnit.SECONDS);
     }
 
     @Bean
-    public List<BundleDeal> bundleDeals(){
-        return new ArrayList<>();
+    public BasketResource basketResource(BasketRepository baskets,
+                                         ProductCatalog products,
+                                         StockReservations stockReservations,
+                                         PromotionEngine promotionEngine,
+                                         PriceQuoteCache priceQuoteCache,
+                                         Journal journal,
+                                         IdempotencyCache<CheckoutResponse> checkoutResponses,
+                                         ReservationReaper reservationReaper,
+                                         StoreMetrics storeMetrics,
+                                         ObjectMapper objectMapper){
+        return new BasketResource(baskets, products, stockReservations, promotionEngine, priceQuoteCache, journal,
+                checkoutResponses, reservationReaper, storeMetrics, objectMapper);
     }
 
+    // Other nodes reserve through it, so a single node does not expose it
     @Bean
-    public BasketResource basketResource(List<Product> products,
-                                         List<DiscountDeal> discountDeals,
-                                         List<BundleDeal> bundleDeals){
-        List<Basket> baskets = new ArrayList<>();
-        return new BasketResource(baskets, products, discountDeals, bundleDeals);
+    @ConditionalOnExpression("!'${store.cluster.nodes:}'.isEmpty()")
+    public InventoryResource inventoryResource(StockReservations stockReservations,
+                                               Journal journal,
+                                               @Value("${store.cluster.secret}") String secret){
+        return new InventoryResource(stockReservations, journal, secret);
     }
 
     @Bean
-    public StoreResource storeResource(List<Product> products,
-                                       List<DiscountDeal> discountDeals,
-                                       List<BundleDeal> bundleDeals,
-                                       AtomicLong counter){
-        return new StoreResource(products, discountDeals, bundleDeals, counter);
+    public StoreResource storeResource(ProductCatalog products,
+                                       StockReservations stockReservations,
+                                       PromotionEngine promotionEngine,
+                                       PriceQuoteCache priceQuoteCache,
+                                       AtomicLong counter,
+                                       Journal journal,
+                                       ObjectMapper objectMapper){
+        return new StoreResource(products, stockReservations, promotionEngine, priceQuoteCache, counter, journal, objectMapper);
     }
 
 }
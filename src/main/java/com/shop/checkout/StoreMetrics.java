@@ -0,0 +1,89 @@
+package com.shop.checkout;
+
+import com.shop.models.Basket;
+import com.shop.pricing.Money;
+import com.shop.store.BasketRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Business metrics of the basket endpoints. Request counts and latencies per endpoint come
+ * from the {@code http.server.requests} timer Spring Boot records for every request.
+ */
+public class StoreMetrics {
+
+    private final MeterRegistry registry;
+
+    private final ConcurrentMap<String, Counter> stockRejections = new ConcurrentHashMap<>();
+
+    private final DistributionSummary checkoutAmount;
+
+    private final Counter discountsApplied;
+
+    private final Counter giftsGiven;
+
+    // Units taken out of stock and held in baskets
+    private final LongAdder reservedUnits = new LongAdder();
+
+    public StoreMetrics(MeterRegistry registry, BasketRepository baskets) {
+        this.registry = registry;
+        this.checkoutAmount = DistributionSummary.builder("basket.checkout.amount")
+                .description("Amount charged per checkout")
+                .baseUnit("currency")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.discountsApplied = Counter.builder("basket.checkout.deals")
+                .description("Deals applied to checked out baskets")
+                .tag("type", "discount")
+                .register(registry);
+        this.giftsGiven = Counter.builder("basket.checkout.deals")
+                .description("Deals applied to checked out baskets")
+                .tag("type", "bundle")
+                .register(registry);
+        for (Basket basket : baskets.values()) {
+            synchronized (basket) {
+                basket.getItems().values().forEach(reservedUnits::add);
+            }
+        }
+        Gauge.builder("basket.live", baskets, BasketRepository::size)
+                .description("Baskets in the store, including empty ones")
+                .register(registry);
+        Gauge.builder("basket.reserved.units", reservedUnits, LongAdder::doubleValue)
+                .description("Units of stock held in baskets")
+                .register(registry);
+    }
+
+    /**
+     * Counts a request turned down because a product or gift had too few units in stock.
+     */
+    public void stockRejected(String operation) {
+        stockRejections.computeIfAbsent(operation, op -> Counter.builder("basket.stock.rejections")
+                .description("Requests turned down for insufficient stock")
+                .tag("operation", op)
+                .register(registry))
+                .increment();
+    }
+
+    public void checkedOut(long amountInMinorUnits, int discounts, int gifts) {
+        checkoutAmount.record(Money.toDouble(amountInMinorUnits));
+        discountsApplied.increment(discounts);
+        giftsGiven.increment(gifts);
+    }
+
+    /**
+     * @param delta units added to, or if negative released from, baskets
+     */
+    public void reservedUnitsChanged(long delta) {
+        reservedUnits.add(delta);
+    }
+
+    public long getReservedUnits() {
+        return reservedUnits.sum();
+    }
+}
@@ -1,8 +1,18 @@
 package com.shop.checkout;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.shop.dto.ImportReport;
+import com.shop.dto.Page;
+import com.shop.journal.Journal;
 import com.shop.models.BundleDeal;
 import com.shop.models.DiscountDeal;
 import com.shop.models.Product;
+import com.shop.pricing.PriceQuoteCache;
+import com.shop.pricing.PromotionEngine;
+import com.shop.store.ProductCatalog;
+import com.shop.store.ProductImporter;
+import com.shop.store.StockReservations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
@@ -16,9 +26,13 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.Optional;
 import java.util.concurrent.atomic.AtomicLong;
 
 @ManagedResource
@@ -28,68 +42,126 @@ public class StoreResource {
 
     final Logger logger = LoggerFactory.getLogger(StoreResource.class);
 
-    private List<Product> products;
+    private ProductCatalog catalog;
 
-    private List<DiscountDeal> discountDeals;
+    private StockReservations stock;
 
-    private List<BundleDeal> bundleDeals;
+    private PromotionEngine promotions;
+
+    private PriceQuoteCache quotes;
 
     private AtomicLong counter;
 
-    public StoreResource(List<Product> products,
-                         List<DiscountDeal> discountDeals,
-                         List<BundleDeal> bundleDeals,
-                         AtomicLong counter) {
-        this.products = products;
-        this.discountDeals = discountDeals;
-        this.bundleDeals = bundleDeals;
+    private Journal journal;
+
+    private ObjectWriter writer;
+
+    public StoreResource(ProductCatalog catalog,
+                         StockReservations stock,
+                         PromotionEngine promotions,
+                         PriceQuoteCache quotes,
+                         AtomicLong counter,
+                         Journal journal,
+                         ObjectMapper objectMapper) {
+        this.catalog = catalog;
+        this.stock = stock;
+        this.promotions = promotions;
+        this.quotes = quotes;
         this.counter = counter;
+        this.journal = journal;
+        this.writer = objectMapper.writer();
     }
 
     @GetMapping("products")
     public List<Product> getProducts(){
-        logger.info("Getting list of products {}", products);
+        List<Product> products = catalog.values();
+        logger.info("Getting list of {} products", products.size());
         return products;
     }
 
+    @GetMapping("products/page")
+    public Page<Product> getProductPage(@RequestParam(defaultValue = "0") int after,
+                                        @RequestParam(defaultValue = "100") int limit){
+        if (logger.isDebugEnabled()){
+            logger.debug("Getting page of products after {}", after);
+        }
+        return Paging.page(catalog::page, after, limit, Product::getId);
+    }
+
+    @GetMapping(value = "products/stream", produces = Paging.NDJSON)
+    public StreamingResponseBody streamProducts(){
+        logger.info("Streaming {} products", catalog.size());
+        return Paging.ndjson(writer, catalog::page, Product::getId);
+    }
+
     @GetMapping("product")
     public Product getProduct(@RequestParam int id){
-        logger.info("Getting product {}", id);
+        if (logger.isDebugEnabled()){
+            logger.debug("Getting product {}", id);
+        }
         return getProductIfExists(id);
     }
 
     @PostMapping(path = "product/add", consumes = "application/json")
     public Integer createProduct(@RequestBody Product product){
         logger.info("Adding product {}", product);
-        Optional<Product> productMaybe = products.stream().filter(x -> x.getName().equalsIgnoreCase(product.getName())).findFirst();
-        if (!productMaybe.isPresent()){
+        if (catalog.findByName(product.getName()) == null){
             Product newProduct = Product.builder()
-                    .id(new Long(counter.incrementAndGet()).intValue())
+                    .id(Math.toIntExact(counter.incrementAndGet()))
                     .name(product.getName())
                     .price(product.getPrice())
                     .description(product.getDescription())
                     .quantity(product.getQuantity())
                     .build();
-            products.add(newProduct);
-            return newProduct.getId();
-        } else {
-            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Product name already exists");
+            if (catalog.add(newProduct)){
+                journal.sync();
+                return newProduct.getId();
+            }
+            // Lost the name to a concurrent add; keeps the ID from being handed out after a restart
+            journal.productIdsIssued(newProduct.getId());
+        }
+        throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Product name already exists");
+    }
+
+    @PostMapping(path = "products/import", consumes = {"application/json", "application/x-ndjson"})
+    public ImportReport importProducts(InputStream body, @RequestParam(defaultValue = "10000") int batchSize) throws IOException {
+        if (batchSize < 1){
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Batch size must be positive");
+        }
+        logger.info("Importing products in batches of {}", batchSize);
+        try {
+            ImportReport report = new ProductImporter(catalog, counter, journal)
+                    .importFrom(new InputStreamReader(body, StandardCharsets.UTF_8), batchSize);
+            logger.info("Imported {} products and rejected {} in {} ms", report.getImported(), report.getRejected(), report.getElapsedMillis());
+            return report;
+        } catch (IllegalArgumentException e){
+            logger.error("Stopped product import: {}", e.getMessage());
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } finally {
+            // Batches imported before a malformed entry are kept, so they are made durable too
+            journal.sync();
         }
     }
 
     @PutMapping(path = "product/update", consumes = "application/json")
     public void updateProduct(@RequestBody Product product){
         logger.info("Updating product {}", product);
-        Product productToUpdate = getProductIfExists(product.getId());
-        products.remove(productToUpdate);
-        products.add(product);
+        if (product.getId() == null || stock.withStockLock(product.getId(), () -> catalog.replace(product)) == null){
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Product Not Found");
+        }
+        quotes.invalidateProduct(product.getId());
+        journal.sync();
     }
 
     @DeleteMapping(path = "product/remove")
     public void removeProduct(@RequestParam int id){
         logger.info("Removing product with id {}", id);
-        Product product = getProductIfExists(id);
-        products.remove(product);
+        // Under the stock lock, so a concurrent reservation cannot write stock for the removed product
+        if (stock.withStockLock(id, () -> catalog.remove(id)) == null){
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Product Not Found");
+        }
+        quotes.invalidateProduct(id);
+        journal.sync();
     }
 
     @PostMapping(path = "discounts/add")
@@ -99,7 +171,9 @@ public class StoreResource {
                 .product(getProductIfExists(productId))
                 .discount(discount)
                 .build();
-        discountDeals.add(discountDeal);
+        promotions.addDiscountDeal(discountDeal);
+        quotes.invalidateProduct(productId);
+        journal.sync();
     }
 
     @PostMapping(path = "bundles/add")
@@ -109,15 +183,16 @@ public class StoreResource {
                 .product(getProductIfExists(productId))
                 .gift(getProductIfExists(giftId))
                 .build();
-        bundleDeals.add(bundleDeal);
+        promotions.addBundleDeal(bundleDeal);
+        journal.sync();
     }
 
     private Product getProductIfExists(int productId){
-        Optional<Product> productMaybe = products.stream().filter(x -> x.getId().equals(productId)).findFirst();
-        if (!productMaybe.isPresent()){
+        Product product = catalog.get(productId);
+        if (product == null){
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Product Not Found");
         }
-        return productMaybe.get();
+        return product;
     }
 
 }
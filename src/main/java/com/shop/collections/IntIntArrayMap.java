@@ -0,0 +1,271 @@
+package com.shop.collections;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * Map from int keys to int values kept in two parallel arrays sorted by key, so an entry costs
+ * eight bytes rather than two boxed integers and a hash map node. Lookups are binary searches
+ * and inserts shift the entries after the new key, which suits small maps such as the lines of
+ * a basket. Iterates in ascending key order. Null keys and values are not supported.
+ * Not thread-safe; callers guard concurrent access.
+ */
+public class IntIntArrayMap extends AbstractMap<Integer, Integer> {
+
+    private static final int[] EMPTY = new int[0];
+
+    private static final int MIN_CAPACITY = 4;
+
+    private int[] keys = EMPTY;
+
+    private int[] values = EMPTY;
+
+    private int size;
+
+    public IntIntArrayMap() {
+    }
+
+    public IntIntArrayMap(int expectedSize) {
+        if (expectedSize > 0) {
+            keys = new int[expectedSize];
+            values = new int[expectedSize];
+        }
+    }
+
+    public IntIntArrayMap(Map<Integer, Integer> map) {
+        this(map.size());
+        map.forEach(this::put);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(int key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Integer && containsKey((int) (Integer) key);
+    }
+
+    /**
+     * @return the value of the key, or the default if the map has no such key
+     */
+    public int get(int key, int defaultValue) {
+        int i = indexOf(key);
+        return i >= 0 ? values[i] : defaultValue;
+    }
+
+    @Override
+    public Integer get(Object key) {
+        return getOrDefault(key, null);
+    }
+
+    @Override
+    public Integer getOrDefault(Object key, Integer defaultValue) {
+        if (!(key instanceof Integer)) {
+            return defaultValue;
+        }
+        int i = indexOf((Integer) key);
+        return i >= 0 ? Integer.valueOf(values[i]) : defaultValue;
+    }
+
+    @Override
+    public Integer put(Integer key, Integer value) {
+        int i = indexOf(key);
+        if (i >= 0) {
+            int previous = values[i];
+            values[i] = value;
+            return previous;
+        }
+        insert(-(i + 1), key, value);
+        return null;
+    }
+
+    @Override
+    public Integer remove(Object key) {
+        if (!(key instanceof Integer)) {
+            return null;
+        }
+        int i = indexOf((Integer) key);
+        if (i < 0) {
+            return null;
+        }
+        int previous = values[i];
+        removeAt(i);
+        return previous;
+    }
+
+    @Override
+    public Integer merge(Integer key, Integer value, BiFunction<? super Integer, ? super Integer, ? extends Integer> remapping) {
+        int i = indexOf(key);
+        if (i < 0) {
+            insert(-(i + 1), key, value);
+            return value;
+        }
+        Integer merged = remapping.apply(values[i], value);
+        if (merged == null) {
+            removeAt(i);
+        } else {
+            values[i] = merged;
+        }
+        return merged;
+    }
+
+    /**
+     * Empties the map and releases its arrays.
+     */
+    @Override
+    public void clear() {
+        keys = EMPTY;
+        values = EMPTY;
+        size = 0;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super Integer, ? super Integer> action) {
+        for (int i = 0; i < size; i++) {
+            action.accept(keys[i], values[i]);
+        }
+    }
+
+    @Override
+    public Set<Entry<Integer, Integer>> entrySet() {
+        return new EntrySet();
+    }
+
+    private int indexOf(int key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insert(int index, int key, int value) {
+        if (size == keys.length) {
+            int capacity = Math.max(MIN_CAPACITY, size + (size >> 1));
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        keys[index] = key;
+        values[index] = value;
+        size++;
+    }
+
+    private void removeAt(int index) {
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+    }
+
+    private class EntrySet extends AbstractSet<Entry<Integer, Integer>> {
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            IntIntArrayMap.this.clear();
+        }
+
+        @Override
+        public Iterator<Entry<Integer, Integer>> iterator() {
+            return new Iterator<Entry<Integer, Integer>>() {
+
+                private int next;
+
+                private int last = -1;
+
+                @Override
+                public boolean hasNext() {
+                    return next < size;
+                }
+
+                @Override
+                public Entry<Integer, Integer> next() {
+                    if (next >= size) {
+                        throw new NoSuchElementException();
+                    }
+                    last = next++;
+                    return new Line(last);
+                }
+
+                @Override
+                public void remove() {
+                    if (last < 0) {
+                        throw new IllegalStateException();
+                    }
+                    removeAt(last);
+                    next = last;
+                    last = -1;
+                }
+            };
+        }
+    }
+
+    // Keeps its key and value, so it stays valid after the map changes; setValue writes through
+    private class Line implements Entry<Integer, Integer> {
+
+        private final int key;
+
+        private int value;
+
+        Line(int index) {
+            this.key = keys[index];
+            this.value = values[index];
+        }
+
+        @Override
+        public Integer getKey() {
+            return key;
+        }
+
+        @Override
+        public Integer getValue() {
+            return value;
+        }
+
+        @Override
+        public Integer setValue(Integer value) {
+            int previous = this.value;
+            put(key, value);
+            this.value = value;
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> entry = (Entry<?, ?>) other;
+            return getKey().equals(entry.getKey()) && getValue().equals(entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key ^ value;
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+}
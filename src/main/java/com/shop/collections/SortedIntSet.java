@@ -0,0 +1,81 @@
+package com.shop.collections;
+
+import java.util.Arrays;
+
+/**
+ * Set of primitive ints kept in one sorted array, for walking in order from any value without
+ * boxing. Adding values in ascending order appends; other adds and removes shift the values
+ * after them. Not thread-safe; callers guard concurrent access.
+ */
+public class SortedIntSet {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] values;
+
+    private int size;
+
+    public SortedIntSet() {
+        this(MIN_CAPACITY);
+    }
+
+    public SortedIntSet(int expectedSize) {
+        values = new int[Math.max(MIN_CAPACITY, expectedSize)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int value) {
+        return indexOf(value) >= 0;
+    }
+
+    /**
+     * @return false if the set already held the value
+     */
+    public boolean add(int value) {
+        int i = indexOf(value);
+        if (i >= 0) {
+            return false;
+        }
+        i = -(i + 1);
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size + (size >> 1));
+        }
+        System.arraycopy(values, i, values, i + 1, size - i);
+        values[i] = value;
+        size++;
+        return true;
+    }
+
+    /**
+     * @return false if the set did not hold the value
+     */
+    public boolean remove(int value) {
+        int i = indexOf(value);
+        if (i < 0) {
+            return false;
+        }
+        System.arraycopy(values, i + 1, values, i, size - i - 1);
+        size--;
+        return true;
+    }
+
+    /**
+     * @return up to limit values greater than the given one, in ascending order
+     */
+    public int[] valuesAfter(int after, int limit) {
+        int i = indexOf(after);
+        int from = i >= 0 ? i + 1 : -(i + 1);
+        return Arrays.copyOfRange(values, from, from + Math.min(limit, size - from));
+    }
+
+    private int indexOf(int value) {
+        // Values usually arrive in ascending order, so try the end before searching
+        if (size == 0 || values[size - 1] < value) {
+            return -(size + 1);
+        }
+        return Arrays.binarySearch(values, 0, size, value);
+    }
+}
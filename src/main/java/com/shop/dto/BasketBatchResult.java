@@ -0,0 +1,17 @@
+package com.shop.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class BasketBatchResult {
+
+    Integer userId;
+
+    boolean applied;
+
+    // Why the basket was left unchanged, if it was
+    String reason;
+
+}
@@ -4,6 +4,7 @@ import com.shop.models.Product;
 import lombok.Builder;
 import lombok.Data;
 
+import java.math.BigDecimal;
 import java.util.List;
 
 @Data
@@ -14,6 +15,6 @@ public class CheckoutResponse {
 
     List<Product> gifts;
 
-    Double amount;
+    BigDecimal amount;
 
 }
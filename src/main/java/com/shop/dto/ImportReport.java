@@ -0,0 +1,19 @@
+package com.shop.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class ImportReport {
+
+    int imported;
+
+    // Products skipped because their name already exists
+    int rejected;
+
+    long elapsedMillis;
+
+    double productsPerSecond;
+
+}
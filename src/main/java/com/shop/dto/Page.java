@@ -0,0 +1,17 @@
+package com.shop.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class Page<T> {
+
+    List<T> items;
+
+    // Pass as "after" to get the next page, null on the last page
+    Integer nextCursor;
+
+}
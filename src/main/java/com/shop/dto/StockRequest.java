@@ -0,0 +1,19 @@
+package com.shop.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class StockRequest {
+
+    // Distinct product IDs, each with the quantity at the same index
+    int[] productIds;
+
+    int[] quantities;
+
+}
@@ -0,0 +1,90 @@
+package com.shop.journal;
+
+import com.shop.models.Product;
+
+import java.io.IOException;
+
+/**
+ * Records every change to store state so it can be replayed after a restart.
+ *
+ * <p>Callers record a change while holding the lock that guards it, which keeps the changes to
+ * each product or basket in the order they were made, and call {@link #sync()} once the locks
+ * are released, before acknowledging the request.
+ */
+public interface Journal extends StoreChanges {
+
+    Journal NONE = new Journal() {
+
+        @Override
+        public void productChanged(Product product) {
+        }
+
+        @Override
+        public void productRemoved(int productId) {
+        }
+
+        @Override
+        public void stockChanged(int productId, int quantity) {
+        }
+
+        @Override
+        public void basketLineChanged(int userId, int productId, int quantity) {
+        }
+
+        @Override
+        public void basketCleared(int userId) {
+        }
+
+        @Override
+        public void discountDealAdded(int productId, double discount) {
+        }
+
+        @Override
+        public void bundleDealAdded(int productId, int giftId) {
+        }
+
+        @Override
+        public void productIdsIssued(long lastId) {
+        }
+
+        @Override
+        public void sync() {
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return true;
+        }
+
+        @Override
+        public void recover(StoreChanges target) {
+        }
+
+        @Override
+        public void checkpoint(StoreSnapshot snapshot) {
+        }
+    };
+
+    /**
+     * Blocks until every change recorded so far is durable.
+     */
+    void sync();
+
+    /**
+     * @return true if no change has ever been recorded
+     */
+    boolean isEmpty();
+
+    /**
+     * Applies the latest checkpoint and every change recorded after it to the target, in order.
+     * Changes recorded while recovering are not written again, so the target may update
+     * journaled structures.
+     */
+    void recover(StoreChanges target);
+
+    /**
+     * Writes a snapshot of the store and drops the records it makes redundant, so that
+     * recovery only has to replay the changes made since. Requests carry on meanwhile.
+     */
+    void checkpoint(StoreSnapshot snapshot) throws IOException;
+}
@@ -0,0 +1,96 @@
+package com.shop.journal;
+
+import com.shop.models.Basket;
+import com.shop.models.BundleDeal;
+import com.shop.models.DiscountDeal;
+import com.shop.models.Product;
+import com.shop.pricing.PromotionEngine;
+import com.shop.store.BasketRepository;
+import com.shop.store.ProductCatalog;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies a snapshot and journaled changes to the in-memory store on startup, before it
+ * serves requests.
+ */
+public class JournalReplay implements StoreChanges {
+
+    private final ProductCatalog catalog;
+
+    private final BasketRepository baskets;
+
+    private final PromotionEngine promotions;
+
+    private final AtomicLong counter;
+
+    public JournalReplay(ProductCatalog catalog, BasketRepository baskets, PromotionEngine promotions, AtomicLong counter) {
+        this.catalog = catalog;
+        this.baskets = baskets;
+        this.promotions = promotions;
+        this.counter = counter;
+    }
+
+    @Override
+    public void productChanged(Product product) {
+        catalog.put(product);
+        // New products must never reuse the ID of a journaled one
+        counter.accumulateAndGet(product.getId(), Math::max);
+    }
+
+    @Override
+    public void productRemoved(int productId) {
+        catalog.remove(productId);
+    }
+
+    @Override
+    public void stockChanged(int productId, int quantity) {
+        Product product = catalog.get(productId);
+        if (product != null) {
+            product.setQuantity(quantity);
+        }
+    }
+
+    @Override
+    public void basketLineChanged(int userId, int productId, int quantity) {
+        Basket basket = baskets.getOrCreate(userId);
+        if (quantity > 0) {
+            basket.getItems().put(productId, quantity);
+        } else {
+            basket.getItems().remove(productId);
+        }
+    }
+
+    @Override
+    public void basketCleared(int userId) {
+        baskets.getOrCreate(userId).clear();
+    }
+
+    @Override
+    public void productIdsIssued(long lastId) {
+        counter.accumulateAndGet(lastId, Math::max);
+    }
+
+    @Override
+    public void discountDealAdded(int productId, double discount) {
+        Product product = catalog.get(productId);
+        if (product != null) {
+            promotions.addDiscountDeal(DiscountDeal.builder()
+                    .product(product)
+                    .discount(discount)
+                    .build());
+        }
+    }
+
+    @Override
+    public void bundleDealAdded(int productId, int giftId) {
+        Product product = catalog.get(productId);
+        Product gift = catalog.get(giftId);
+        if (product != null && gift != null) {
+            promotions.addBundleDeal(BundleDeal.builder()
+                    .product(product)
+                    .gift(gift)
+                    .build());
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.shop.journal;
+
+import com.shop.models.Product;
+
+/**
+ * Changes to store state. Each change carries the new state of one product, stock level,
+ * basket line or deal rather than a delta, so applying changes in the order they were made
+ * rebuilds the final state however often they are applied.
+ */
+public interface StoreChanges {
+
+    void productChanged(Product product);
+
+    void productRemoved(int productId);
+
+    void stockChanged(int productId, int quantity);
+
+    /**
+     * @param quantity the new quantity of the product in the basket, 0 once it is removed
+     */
+    void basketLineChanged(int userId, int productId, int quantity);
+
+    void basketCleared(int userId);
+
+    void discountDealAdded(int productId, double discount);
+
+    void bundleDealAdded(int productId, int giftId);
+
+    /**
+     * IDs up to lastId have been handed out, including to products since removed, and must not
+     * be reused.
+     */
+    void productIdsIssued(long lastId);
+}
@@ -0,0 +1,197 @@
+package com.shop.journal;
+
+import com.shop.models.Basket;
+import com.shop.models.BundleDeal;
+import com.shop.models.DiscountDeal;
+import com.shop.models.Product;
+import com.shop.pricing.PromotionEngine;
+import com.shop.store.BasketRepository;
+import com.shop.store.ProductCatalog;
+import com.shop.store.StockReservations;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Binary image of the whole store: the product ID counter, products, baskets and deals.
+ *
+ * <p>The image is taken while requests keep running. Each product and basket is copied under
+ * the lock that guards it, so every copy is consistent on its own, but the image as a whole
+ * is fuzzy: changes made while it is taken may or may not be in it. The journal records each
+ * of those changes after the log position at which the snapshot started, and journal records
+ * set state rather than apply deltas, so replaying them over the snapshot brings every item
+ * to its latest state.
+ */
+public class StoreSnapshot {
+
+    private static final int MAGIC = 0x43534E50;
+
+    private static final int VERSION = 1;
+
+    private final ProductCatalog catalog;
+
+    private final StockReservations stock;
+
+    private final BasketRepository baskets;
+
+    private final PromotionEngine promotions;
+
+    private final AtomicLong counter;
+
+    public StoreSnapshot(ProductCatalog catalog,
+                         StockReservations stock,
+                         BasketRepository baskets,
+                         PromotionEngine promotions,
+                         AtomicLong counter) {
+        this.catalog = catalog;
+        this.stock = stock;
+        this.baskets = baskets;
+        this.promotions = promotions;
+        this.counter = counter;
+    }
+
+    /**
+     * @param position the journal position, read before anything is copied
+     * @return the journal position the snapshot starts at
+     */
+    public long writeTo(DataOutputStream out, LongSupplier position) throws IOException {
+        // Deals are added rather than set, so unlike the rest they must be read exactly at the
+        // snapshot position or replay would add a deal twice
+        Deals deals = promotions.withDealsLocked(() ->
+                new Deals(position.getAsLong(), promotions.getDiscountDeals(), promotions.getBundleDeals()));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(deals.lsn);
+        // Read the counter first so it covers every product written below
+        out.writeLong(counter.get());
+
+        List<Product> products = catalog.values();
+        out.writeInt(products.size());
+        for (Product product : products) {
+            Integer quantity = stock.withStockLock(product.getId(), product::getQuantity);
+            out.writeInt(product.getId());
+            writeString(out, product.getName());
+            out.writeLong(product.getPriceInMinorUnits());
+            writeString(out, product.getDescription());
+            out.writeInt(quantity != null ? quantity : 0);
+        }
+
+        List<Basket> basketList = baskets.values();
+        out.writeInt(basketList.size());
+        List<int[]> lines = new ArrayList<>();
+        for (Basket basket : basketList) {
+            lines.clear();
+            synchronized (basket) {
+                for (Map.Entry<Integer, Integer> item : basket.getItems().entrySet()) {
+                    lines.add(new int[]{item.getKey(), item.getValue()});
+                }
+            }
+            out.writeInt(basket.getUserId());
+            out.writeInt(lines.size());
+            for (int[] line : lines) {
+                out.writeInt(line[0]);
+                out.writeInt(line[1]);
+            }
+        }
+
+        out.writeInt(deals.discountDeals.size());
+        for (DiscountDeal deal : deals.discountDeals) {
+            out.writeInt(deal.getProduct().getId());
+            out.writeDouble(deal.getDiscount());
+        }
+        out.writeInt(deals.bundleDeals.size());
+        for (BundleDeal deal : deals.bundleDeals) {
+            out.writeInt(deal.getProduct().getId());
+            out.writeInt(deal.getGift().getId());
+        }
+        return deals.lsn;
+    }
+
+    /**
+     * Applies the snapshot to the target as a sequence of changes.
+     *
+     * @return the journal position the snapshot starts at
+     * @throws IOException if the input is not a snapshot of a supported version
+     */
+    public static long readFrom(DataInputStream in, StoreChanges target) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a store snapshot of version " + VERSION);
+        }
+        long lsn = in.readLong();
+        target.productIdsIssued(in.readLong());
+
+        int products = in.readInt();
+        for (int i = 0; i < products; i++) {
+            Product product = new Product();
+            product.setId(in.readInt());
+            product.setName(readString(in));
+            product.setPriceInMinorUnits(in.readLong());
+            product.setDescription(readString(in));
+            product.setQuantity(in.readInt());
+            target.productChanged(product);
+        }
+
+        int basketCount = in.readInt();
+        for (int i = 0; i < basketCount; i++) {
+            int userId = in.readInt();
+            int lines = in.readInt();
+            // An empty basket is still restored, as it exists in the repository
+            target.basketCleared(userId);
+            for (int line = 0; line < lines; line++) {
+                target.basketLineChanged(userId, in.readInt(), in.readInt());
+            }
+        }
+
+        int discountDeals = in.readInt();
+        for (int i = 0; i < discountDeals; i++) {
+            target.discountDealAdded(in.readInt(), in.readDouble());
+        }
+        int bundleDeals = in.readInt();
+        for (int i = 0; i < bundleDeals; i++) {
+            target.bundleDealAdded(in.readInt(), in.readInt());
+        }
+        return lsn;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Deals {
+
+        final long lsn;
+
+        final List<DiscountDeal> discountDeals;
+
+        final List<BundleDeal> bundleDeals;
+
+        Deals(long lsn, List<DiscountDeal> discountDeals, List<BundleDeal> bundleDeals) {
+            this.lsn = lsn;
+            this.discountDeals = discountDeals;
+            this.bundleDeals = bundleDeals;
+        }
+    }
+}
@@ -0,0 +1,609 @@
+package com.shop.journal;
+
+import com.shop.models.Product;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Append-only journal kept in memory-mapped segment files. Appending a record copies it into
+ * the mapped segment under a short lock; a background thread makes records durable by forcing
+ * the segment to disk. Every request thread waiting in {@link #sync()} while a force is in
+ * progress is released by the next force, so concurrent requests share one fsync
+ * (group commit) instead of paying for one each.
+ *
+ * <p>Each record is framed as its payload length, the CRC32 of the payload, then the payload:
+ * a type byte followed by the fields of the change. A segment ends at the first zero length,
+ * and the last segment also ends at the first record that is cut short or fails its CRC,
+ * which is where a crash interrupted the last write. The position of a record across all
+ * segments is its log sequence number (LSN); segment files are named after the LSN they
+ * start at.
+ *
+ * <p>A checkpoint writes a {@link StoreSnapshot} named after the LSN it starts at, so recovery
+ * loads the latest snapshot and only replays the records from that LSN on.
+ */
+public class WriteAheadLog implements Journal, Closeable {
+
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String SUFFIX = ".wal";
+
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte PRODUCT_CHANGED = 1;
+    private static final byte PRODUCT_REMOVED = 2;
+    private static final byte STOCK_CHANGED = 3;
+    private static final byte BASKET_LINE_CHANGED = 4;
+    private static final byte BASKET_CLEARED = 5;
+    private static final byte DISCOUNT_DEAL_ADDED = 6;
+    private static final byte BUNDLE_DEAL_ADDED = 7;
+    private static final byte PRODUCT_IDS_ISSUED = 8;
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    // Guards appends, the active segment and the written LSN
+    private final Object appendLock = new Object();
+
+    // Guards sync requests and the durable LSN. A lock rather than a monitor, so virtual threads
+    // waiting in sync() release their carrier thread.
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    // Signalled when a sync is requested, the durable LSN moves or the journal closes
+    private final Condition flushChanged = flushLock.newCondition();
+
+    // Serializes checkpoints, which share a temporary file
+    private final Object checkpointLock = new Object();
+
+    private final CRC32 crc = new CRC32();
+
+    private ByteBuffer record = ByteBuffer.allocate(256);
+
+    private volatile Segment segment;
+
+    private volatile long writtenLsn;
+
+    private volatile long durableLsn;
+
+    private boolean syncRequested;
+
+    private volatile boolean replaying;
+
+    private volatile boolean closed;
+
+    private final Thread flusher;
+
+    private WriteAheadLog(Path directory, int segmentSize, Segment segment) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.segment = segment;
+        this.writtenLsn = segment.lsn();
+        this.durableLsn = writtenLsn;
+        this.flusher = new Thread(this::flushLoop, "journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    public static WriteAheadLog open(Path directory) throws IOException {
+        return open(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the journal in the directory, creating it if needed, and positions appends after
+     * the last intact record.
+     */
+    public static WriteAheadLog open(Path directory, int segmentSize) throws IOException {
+        Files.createDirectories(directory);
+        List<Path> segments = segmentFiles(directory);
+        Segment segment;
+        if (segments.isEmpty()) {
+            segment = Segment.create(directory, 0, segmentSize);
+        } else {
+            Path last = segments.get(segments.size() - 1);
+            segment = Segment.open(last, baseLsn(last, SUFFIX));
+            segment.recoverTail();
+        }
+        logger.info("Opened journal in {} at LSN {}", directory, segment.lsn());
+        return new WriteAheadLog(directory, segmentSize, segment);
+    }
+
+    @Override
+    public void productChanged(Product product) {
+        synchronized (appendLock) {
+            start(PRODUCT_CHANGED);
+            record.putInt(product.getId());
+            putString(product.getName());
+            record.putLong(product.getPriceInMinorUnits());
+            putString(product.getDescription());
+            record.putInt(product.getQuantity() != null ? product.getQuantity() : 0);
+            append();
+        }
+    }
+
+    @Override
+    public void productRemoved(int productId) {
+        synchronized (appendLock) {
+            start(PRODUCT_REMOVED);
+            record.putInt(productId);
+            append();
+        }
+    }
+
+    @Override
+    public void stockChanged(int productId, int quantity) {
+        synchronized (appendLock) {
+            start(STOCK_CHANGED);
+            record.putInt(productId);
+            record.putInt(quantity);
+            append();
+        }
+    }
+
+    @Override
+    public void basketLineChanged(int userId, int productId, int quantity) {
+        synchronized (appendLock) {
+            start(BASKET_LINE_CHANGED);
+            record.putInt(userId);
+            record.putInt(productId);
+            record.putInt(quantity);
+            append();
+        }
+    }
+
+    @Override
+    public void basketCleared(int userId) {
+        synchronized (appendLock) {
+            start(BASKET_CLEARED);
+            record.putInt(userId);
+            append();
+        }
+    }
+
+    @Override
+    public void discountDealAdded(int productId, double discount) {
+        synchronized (appendLock) {
+            start(DISCOUNT_DEAL_ADDED);
+            record.putInt(productId);
+            record.putDouble(discount);
+            append();
+        }
+    }
+
+    @Override
+    public void bundleDealAdded(int productId, int giftId) {
+        synchronized (appendLock) {
+            start(BUNDLE_DEAL_ADDED);
+            record.putInt(productId);
+            record.putInt(giftId);
+            append();
+        }
+    }
+
+    @Override
+    public void productIdsIssued(long lastId) {
+        synchronized (appendLock) {
+            start(PRODUCT_IDS_ISSUED);
+            record.putLong(lastId);
+            append();
+        }
+    }
+
+    @Override
+    public void sync() {
+        long target = writtenLsn;
+        if (durableLsn >= target) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            syncRequested = true;
+            flushChanged.signalAll();
+            while (durableLsn < target) {
+                if (closed) {
+                    throw new IllegalStateException("Journal closed before changes were made durable");
+                }
+                try {
+                    flushChanged.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the journal", e);
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return writtenLsn == 0;
+    }
+
+    @Override
+    public void recover(StoreChanges target) {
+        replaying = true;
+        try {
+            long fromLsn = 0;
+            List<Path> snapshots = snapshotFiles(directory);
+            if (!snapshots.isEmpty()) {
+                fromLsn = restore(snapshots.get(snapshots.size() - 1), target);
+            }
+            replay(fromLsn, target);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            replaying = false;
+        }
+    }
+
+    /**
+     * Writes the snapshot next to the log segments, then deletes older snapshots and every
+     * segment that only holds records from before the snapshot.
+     */
+    @Override
+    public void checkpoint(StoreSnapshot snapshot) throws IOException {
+        synchronized (checkpointLock) {
+            long start = System.nanoTime();
+            Path temporary = directory.resolve("checkpoint" + SNAPSHOT_SUFFIX + ".tmp");
+            long lsn;
+            try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+                 CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), new CRC32());
+                 DataOutputStream out = new DataOutputStream(checked)) {
+                lsn = snapshot.writeTo(out, () -> writtenLsn);
+                out.writeLong(checked.getChecksum().getValue());
+                out.flush();
+                file.getFD().sync();
+            }
+            Path target = directory.resolve(String.format("%020d%s", lsn, SNAPSHOT_SUFFIX));
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+            for (Path older : snapshotFiles(directory)) {
+                if (baseLsn(older, SNAPSHOT_SUFFIX) < lsn) {
+                    Files.delete(older);
+                }
+            }
+            List<Path> segments = segmentFiles(directory);
+            // The last segment is the one being appended to, so it is always kept
+            for (int i = 0; i < segments.size() - 1; i++) {
+                if (baseLsn(segments.get(i + 1), SUFFIX) <= lsn) {
+                    Files.delete(segments.get(i));
+                }
+            }
+            logger.info("Wrote checkpoint at LSN {} in {} ms", lsn, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    public long getWrittenLsn() {
+        return writtenLsn;
+    }
+
+    public long getDurableLsn() {
+        return durableLsn;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushLock.lock();
+        try {
+            closed = true;
+            flushChanged.signalAll();
+        } finally {
+            flushLock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (appendLock) {
+            segment.buffer.force();
+            segment.channel.close();
+            durableLsn = writtenLsn;
+        }
+    }
+
+    private long restore(Path snapshot, StoreChanges target) throws IOException {
+        long start = System.nanoTime();
+        long lsn;
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(snapshot), 1 << 16), new CRC32());
+             DataInputStream in = new DataInputStream(checked)) {
+            lsn = StoreSnapshot.readFrom(in, target);
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) {
+                // Snapshots are only renamed into place once fully written, so this is real damage
+                throw new IOException("Corrupt snapshot " + snapshot);
+            }
+        }
+        logger.info("Restored snapshot at LSN {} in {} ms", lsn, (System.nanoTime() - start) / 1_000_000);
+        return lsn;
+    }
+
+    private void replay(long fromLsn, StoreChanges target) throws IOException {
+        long records = 0;
+        for (Path file : segmentFiles(directory)) {
+            long baseLsn = baseLsn(file, SUFFIX);
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            while (true) {
+                long lsn = baseLsn + buffer.position();
+                ByteBuffer payload = nextRecord(buffer);
+                if (payload == null) {
+                    break;
+                }
+                if (lsn >= fromLsn) {
+                    apply(payload, target);
+                    records++;
+                }
+            }
+        }
+        logger.info("Replayed {} journal records from LSN {} to {}", records, fromLsn, writtenLsn);
+    }
+
+    private void start(byte type) {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+        record.clear();
+        record.position(HEADER_SIZE);
+        record.put(type);
+    }
+
+    private void putString(String value) {
+        if (value == null) {
+            record.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensureCapacity(4 + bytes.length + 16);
+        record.putInt(bytes.length);
+        record.put(bytes);
+    }
+
+    private void ensureCapacity(int needed) {
+        if (record.remaining() < needed) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(record.capacity() * 2, record.position() + needed));
+            record.flip();
+            larger.put(record);
+            record = larger;
+        }
+    }
+
+    // Caller holds the append lock
+    private void append() {
+        if (replaying) {
+            return;
+        }
+        int length = record.position() - HEADER_SIZE;
+        crc.reset();
+        crc.update(record.array(), HEADER_SIZE, length);
+        record.putInt(0, length);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        if (record.remaining() > segment.buffer.remaining()) {
+            roll(record.remaining());
+        }
+        segment.buffer.put(record);
+        writtenLsn = segment.lsn();
+    }
+
+    private void roll(int recordSize) {
+        if (recordSize > segmentSize) {
+            throw new IllegalArgumentException("Journal record of " + recordSize + " bytes exceeds the segment size");
+        }
+        try {
+            // Force the full segment so the flusher only ever has to force the active one
+            segment.buffer.force();
+            segment.channel.close();
+            segment = Segment.create(directory, segment.lsn(), segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            flushLock.lock();
+            try {
+                while (!closed && !(syncRequested && writtenLsn > durableLsn)) {
+                    try {
+                        flushChanged.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                syncRequested = false;
+            } finally {
+                flushLock.unlock();
+            }
+            long target;
+            Segment active;
+            synchronized (appendLock) {
+                target = writtenLsn;
+                active = segment;
+            }
+            // Appends carry on while forcing; those that miss this force are picked up by the next
+            active.buffer.force();
+            flushLock.lock();
+            try {
+                durableLsn = Math.max(durableLsn, target);
+                flushChanged.signalAll();
+            } finally {
+                flushLock.unlock();
+            }
+        }
+    }
+
+    private static void apply(ByteBuffer payload, StoreChanges target) {
+        byte type = payload.get();
+        switch (type) {
+            case PRODUCT_CHANGED:
+                Product product = new Product();
+                product.setId(payload.getInt());
+                product.setName(getString(payload));
+                product.setPriceInMinorUnits(payload.getLong());
+                product.setDescription(getString(payload));
+                product.setQuantity(payload.getInt());
+                target.productChanged(product);
+                break;
+            case PRODUCT_REMOVED:
+                target.productRemoved(payload.getInt());
+                break;
+            case STOCK_CHANGED:
+                target.stockChanged(payload.getInt(), payload.getInt());
+                break;
+            case BASKET_LINE_CHANGED:
+                target.basketLineChanged(payload.getInt(), payload.getInt(), payload.getInt());
+                break;
+            case BASKET_CLEARED:
+                target.basketCleared(payload.getInt());
+                break;
+            case DISCOUNT_DEAL_ADDED:
+                target.discountDealAdded(payload.getInt(), payload.getDouble());
+                break;
+            case BUNDLE_DEAL_ADDED:
+                target.bundleDealAdded(payload.getInt(), payload.getInt());
+                break;
+            case PRODUCT_IDS_ISSUED:
+                target.productIdsIssued(payload.getLong());
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+    private static String getString(ByteBuffer payload) {
+        int length = payload.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the payload of the record at the buffer position, advancing past it, or null at
+     *         the end of the segment or at a torn or corrupt record
+     */
+    static ByteBuffer nextRecord(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE) {
+            return null;
+        }
+        int start = buffer.position();
+        int length = buffer.getInt(start);
+        int checksum = buffer.getInt(start + 4);
+        if (length <= 0 || length > buffer.remaining() - HEADER_SIZE) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(start + HEADER_SIZE).limit(start + HEADER_SIZE + length);
+        crc.update(payload.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        buffer.position(start + HEADER_SIZE + length);
+        return payload.slice();
+    }
+
+    static List<Path> segmentFiles(Path directory) throws IOException {
+        return filesByLsn(directory, SUFFIX);
+    }
+
+    static List<Path> snapshotFiles(Path directory) throws IOException {
+        return filesByLsn(directory, SNAPSHOT_SUFFIX);
+    }
+
+    private static List<Path> filesByLsn(Path directory, String suffix) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> matches = Files.newDirectoryStream(directory, "[0-9]*" + suffix)) {
+            matches.forEach(files::add);
+        }
+        files.sort((a, b) -> Long.compare(baseLsn(a, suffix), baseLsn(b, suffix)));
+        return files;
+    }
+
+    private static long baseLsn(Path file, String suffix) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - suffix.length()));
+    }
+
+    private static class Segment {
+
+        final long baseLsn;
+
+        final FileChannel channel;
+
+        final MappedByteBuffer buffer;
+
+        private Segment(long baseLsn, FileChannel channel, MappedByteBuffer buffer) {
+            this.baseLsn = baseLsn;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path directory, long baseLsn, int size) throws IOException {
+            Path file = directory.resolve(String.format("%020d%s", baseLsn, SUFFIX));
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(baseLsn, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+
+        static Segment open(Path file, long baseLsn) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(baseLsn, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+        }
+
+        long lsn() {
+            return baseLsn + buffer.position();
+        }
+
+        // Moves to the end of the last intact record and zeroes anything a crash left after it
+        void recoverTail() {
+            while (nextRecord(buffer) != null) {
+                // skip intact records
+            }
+            int end = buffer.position();
+            if (buffer.remaining() >= HEADER_SIZE && buffer.getLong(end) != 0) {
+                logger.warn("Discarding torn journal record at LSN {}", baseLsn + end);
+                while (buffer.hasRemaining()) {
+                    buffer.put((byte) 0);
+                }
+                buffer.force();
+                buffer.position(end);
+            }
+        }
+    }
+}
@@ -1,24 +1,45 @@
 package com.shop.models;
 
-import lombok.AllArgsConstructor;
+import com.shop.collections.IntIntArrayMap;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
 
-import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * The products a user is about to buy. Baskets are equal when they belong to the same user,
+ * so comparing or hashing one never walks its lines.
+ */
 @Data
 @Builder
 @NoArgsConstructor
-@AllArgsConstructor
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
 public class Basket {
 
+    @EqualsAndHashCode.Include
     private Integer userId;
 
-    // Product ID to quantity map
+    // Product ID to quantity map, kept as primitive arrays
     private Map<Integer, Integer> items;
 
+    public Basket(Integer userId, Map<Integer, Integer> items) {
+        this.userId = userId;
+        setItems(items);
+    }
+
+    /**
+     * Keeps a compact map as it is and copies any other map into one.
+     */
+    public void setItems(Map<Integer, Integer> items) {
+        if (items == null || items instanceof IntIntArrayMap) {
+            this.items = items;
+        } else {
+            this.items = new IntIntArrayMap(items);
+        }
+    }
+
     public void clear(){
         items.clear();
     }
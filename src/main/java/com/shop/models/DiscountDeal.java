@@ -1,5 +1,6 @@
 package com.shop.models;
 
+import com.shop.pricing.Money;
 import lombok.Builder;
 import lombok.Data;
 
@@ -14,15 +15,13 @@ public class DiscountDeal {
     private final int limit = 2;
 
     public boolean isEligible(Basket basket){
-        if (basket.getItems().get(product.getId()) >= limit){
-            return true;
-        } else {
-            return false;
-        }
+        Integer quantity = basket.getItems().get(product.getId());
+        return quantity != null && quantity >= limit;
     }
 
-    public Double adjustment(){
-        return product.getPrice() * discount;
+    // Discount on the second unit, in minor currency units
+    public long adjustment(long unitPriceInMinorUnits){
+        return Money.applyRate(unitPriceInMinorUnits, discount);
     }
 
 }
@@ -1,5 +1,7 @@
 package com.shop.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.shop.pricing.Money;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -15,10 +17,27 @@ public class Product {
 
     private String name;
 
-    private Double price;
+    // Price in minor currency units, exposed as a decimal "price" in JSON
+    @JsonIgnore
+    private long priceInMinorUnits;
 
     private String description;
 
     private Integer quantity;
 
+    public Double getPrice(){
+        return Money.toDouble(priceInMinorUnits);
+    }
+
+    public void setPrice(Double price){
+        this.priceInMinorUnits = (price != null)? Money.toMinorUnits(price): 0;
+    }
+
+    public static class ProductBuilder {
+
+        public ProductBuilder price(Double price){
+            return priceInMinorUnits((price != null)? Money.toMinorUnits(price): 0);
+        }
+    }
+
 }
@@ -0,0 +1,46 @@
+package com.shop.pricing;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Fixed-point money helpers. Amounts are held as a long count of minor currency units
+ * (e.g. cents), so the pricing path adds and multiplies plain longs and only converts to
+ * a decimal at the API boundary.
+ */
+public final class Money {
+
+    // Number of decimal places of the store currency
+    public static final int SCALE = 2;
+
+    private static final long MINOR_UNITS_PER_MAJOR = BigDecimal.ONE.scaleByPowerOfTen(SCALE).longValueExact();
+
+    private static final long BASIS_POINTS = 10_000;
+
+    private Money() {
+    }
+
+    public static long toMinorUnits(double amount) {
+        return BigDecimal.valueOf(amount)
+                .setScale(SCALE, RoundingMode.HALF_UP)
+                .unscaledValue()
+                .longValueExact();
+    }
+
+    public static double toDouble(long minorUnits) {
+        return minorUnits / (double) MINOR_UNITS_PER_MAJOR;
+    }
+
+    public static BigDecimal toBigDecimal(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, SCALE);
+    }
+
+    /**
+     * Applies a fractional rate such as 0.5 to an amount, rounding half up to the nearest
+     * minor unit. The rate is taken to a precision of four decimal places.
+     */
+    public static long applyRate(long minorUnits, double rate) {
+        long basisPoints = Math.round(rate * BASIS_POINTS);
+        return Math.floorDiv(minorUnits * basisPoints + BASIS_POINTS / 2, BASIS_POINTS);
+    }
+}
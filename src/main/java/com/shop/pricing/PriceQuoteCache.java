@@ -0,0 +1,157 @@
+package com.shop.pricing;
+
+import com.shop.models.Basket;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running total of each basket, in minor currency units, together with the total of each of
+ * its lines. Basket changes reprice only the lines they touch, so reading a total is O(1)
+ * however many lines the basket has. A quote is dropped when the price or deals of one of its
+ * products change, and rebuilt in full on the next read.
+ *
+ * <p>Quoting and line updates must happen while holding the basket monitor, which orders them
+ * against each other. Product invalidation happens without it, so every product change bumps a
+ * generation and a quote priced across a bump is discarded instead of kept.
+ */
+public class PriceQuoteCache {
+
+    /**
+     * Prices one line of a basket, taking its discount deals into account.
+     */
+    @FunctionalInterface
+    public interface LinePricer {
+
+        /**
+         * @return the line total, 0 if the basket does not hold the product, or null if the
+         *         product no longer exists
+         */
+        Long price(Basket basket, int productId);
+    }
+
+    private final ConcurrentMap<Integer, Quote> quotesByUser = new ConcurrentHashMap<>();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Returns the total of the basket, pricing every line and caching the result on a miss.
+     * The caller must hold the basket monitor.
+     *
+     * @return the total, or null if a product of the basket no longer exists
+     */
+    public Long quote(Basket basket, LinePricer pricer) {
+        Quote cached = quotesByUser.get(basket.getUserId());
+        if (cached != null) {
+            hits.increment();
+            return cached.total;
+        }
+        misses.increment();
+        long startGeneration = generation.get();
+        Quote quote = new Quote();
+        for (Integer productId : basket.getItems().keySet()) {
+            Long line = pricer.price(basket, productId);
+            if (line == null) {
+                return null;
+            }
+            quote.setLine(productId, line);
+        }
+        publish(basket.getUserId(), quote, startGeneration);
+        return quote.total;
+    }
+
+    /**
+     * Reprices one line of the quoted basket after the quantity of the product changed, if the
+     * basket has a quote. The caller must hold the basket monitor.
+     */
+    public void lineChanged(Basket basket, int productId, LinePricer pricer) {
+        // Read before repricing, so an invalidation whose scan may miss the line set below is seen
+        long startGeneration = generation.get();
+        Quote quote = quotesByUser.get(basket.getUserId());
+        if (quote == null) {
+            return;
+        }
+        Long line = pricer.price(basket, productId);
+        if (line == null) {
+            quotesByUser.remove(basket.getUserId(), quote);
+            return;
+        }
+        if (basket.getItems().containsKey(productId)) {
+            quote.setLine(productId, line);
+        } else {
+            quote.removeLine(productId);
+        }
+        // Changed in place and never put back, so a quote an invalidation removed stays removed
+        if (generation.get() != startGeneration) {
+            quotesByUser.remove(basket.getUserId(), quote);
+        }
+    }
+
+    /**
+     * Drops the quote of the basket. The caller must hold the basket monitor.
+     */
+    public void invalidateBasket(int userId) {
+        quotesByUser.remove(userId);
+    }
+
+    /**
+     * Drops the quotes of every basket holding the product. Call after the product or one of
+     * its deals has changed; scans all quotes, which is fine for admin-rate changes.
+     */
+    public void invalidateProduct(int productId) {
+        generation.incrementAndGet();
+        for (Iterator<Quote> quotes = quotesByUser.values().iterator(); quotes.hasNext(); ) {
+            if (quotes.next().lines.containsKey(productId)) {
+                quotes.remove();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        return quotesByUser.size();
+    }
+
+    private void publish(int userId, Quote quote, long startGeneration) {
+        quotesByUser.put(userId, quote);
+        if (generation.get() != startGeneration) {
+            // A product changed while pricing and its invalidation may have missed this quote
+            quotesByUser.remove(userId, quote);
+        }
+    }
+
+    private static class Quote {
+
+        // Only changed under the basket monitor
+        long total;
+
+        // Concurrent so product invalidation can look up lines without the basket monitor
+        final ConcurrentMap<Integer, Long> lines = new ConcurrentHashMap<>();
+
+        void setLine(int productId, long line) {
+            Long previous = lines.put(productId, line);
+            total += line - (previous != null ? previous : 0);
+        }
+
+        void removeLine(int productId) {
+            Long previous = lines.remove(productId);
+            if (previous != null) {
+                total -= previous;
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.shop.pricing;
+
+import com.shop.collections.IntObjectHashMap;
+import com.shop.journal.Journal;
+import com.shop.models.BundleDeal;
+import com.shop.models.DiscountDeal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Active discount and bundle deals indexed by the ID of the product that triggers them.
+ * The index is immutable once built; adding a deal builds a new one and swaps it in, so
+ * pricing reads never lock and never see a half-updated rule set.
+ */
+public class PromotionEngine {
+
+    private volatile Rules rules = new Rules(Collections.emptyList(), Collections.emptyList());
+
+    private final Journal journal;
+
+    public PromotionEngine() {
+        this(Journal.NONE);
+    }
+
+    public PromotionEngine(Journal journal) {
+        this.journal = journal;
+    }
+
+    public List<DiscountDeal> discountDealsFor(int productId) {
+        return orEmpty(rules.discountDealsByProduct.get(productId));
+    }
+
+    public List<BundleDeal> bundleDealsFor(int productId) {
+        return orEmpty(rules.bundleDealsByProduct.get(productId));
+    }
+
+    public List<DiscountDeal> getDiscountDeals() {
+        return rules.discountDeals;
+    }
+
+    public List<BundleDeal> getBundleDeals() {
+        return rules.bundleDeals;
+    }
+
+    public synchronized void addDiscountDeal(DiscountDeal deal) {
+        Rules current = rules;
+        rules = new Rules(append(current.discountDeals, deal), current.bundleDeals);
+        journal.discountDealAdded(deal.getProduct().getId(), deal.getDiscount());
+    }
+
+    public synchronized void addBundleDeal(BundleDeal deal) {
+        Rules current = rules;
+        rules = new Rules(current.discountDeals, append(current.bundleDeals, deal));
+        journal.bundleDealAdded(deal.getProduct().getId(), deal.getGift().getId());
+    }
+
+    /**
+     * Runs the action while no deal can be added, e.g. to read both deal lists together with
+     * the journal position that follows the last deal.
+     */
+    public synchronized <T> T withDealsLocked(Supplier<T> action) {
+        return action.get();
+    }
+
+    private static <T> List<T> append(List<T> deals, T deal) {
+        List<T> copy = new ArrayList<>(deals.size() + 1);
+        copy.addAll(deals);
+        copy.add(deal);
+        return Collections.unmodifiableList(copy);
+    }
+
+    private static <T> List<T> orEmpty(List<T> deals) {
+        return deals != null ? deals : Collections.emptyList();
+    }
+
+    private static class Rules {
+
+        final List<DiscountDeal> discountDeals;
+
+        final List<BundleDeal> bundleDeals;
+
+        final IntObjectHashMap<List<DiscountDeal>> discountDealsByProduct;
+
+        final IntObjectHashMap<List<BundleDeal>> bundleDealsByProduct;
+
+        Rules(List<DiscountDeal> discountDeals, List<BundleDeal> bundleDeals) {
+            this.discountDeals = discountDeals;
+            this.bundleDeals = bundleDeals;
+            this.discountDealsByProduct = index(discountDeals, deal -> deal.getProduct().getId());
+            this.bundleDealsByProduct = index(bundleDeals, deal -> deal.getProduct().getId());
+        }
+
+        private static <T> IntObjectHashMap<List<T>> index(List<T> deals, Function<T, Integer> productId) {
+            IntObjectHashMap<List<T>> index = new IntObjectHashMap<>(deals.size());
+            for (T deal : deals) {
+                List<T> forProduct = index.get(productId.apply(deal));
+                if (forProduct == null) {
+                    forProduct = new ArrayList<>(1);
+                    index.put(productId.apply(deal), forProduct);
+                }
+                forProduct.add(deal);
+            }
+            return index;
+        }
+    }
+}
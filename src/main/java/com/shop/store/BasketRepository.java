@@ -0,0 +1,75 @@
+package com.shop.store;
+
+import com.shop.collections.IntIntArrayMap;
+import com.shop.models.Basket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Baskets indexed by user ID.
+ */
+public class BasketRepository {
+
+    private final ConcurrentMap<Integer, Basket> basketsByUser = new ConcurrentHashMap<>();
+
+    // Ordered user IDs for paging; only touched when a basket is created
+    private final ConcurrentSkipListSet<Integer> userIds = new ConcurrentSkipListSet<>();
+
+    public Basket get(int userId) {
+        return basketsByUser.get(userId);
+    }
+
+    /**
+     * Returns the basket of the given user, atomically creating an empty one if the user has none.
+     */
+    public Basket getOrCreate(int userId) {
+        Basket basket = basketsByUser.get(userId);
+        if (basket != null) {
+            return basket;
+        }
+        return basketsByUser.computeIfAbsent(userId, id -> {
+            userIds.add(id);
+            return Basket.builder()
+                    .userId(id)
+                    .items(new IntIntArrayMap())
+                    .build();
+        });
+    }
+
+    public void add(Basket basket) {
+        basketsByUser.put(basket.getUserId(), basket);
+        userIds.add(basket.getUserId());
+    }
+
+    public int size() {
+        return basketsByUser.size();
+    }
+
+    /**
+     * @return a copy of all baskets ordered by user ID
+     */
+    public List<Basket> values() {
+        return page(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return up to limit baskets of users with an ID greater than afterUserId, ordered by user ID
+     */
+    public List<Basket> page(int afterUserId, int limit) {
+        List<Basket> page = new ArrayList<>(Math.min(limit, 1024));
+        for (Integer userId : userIds.tailSet(afterUserId, afterUserId == Integer.MIN_VALUE)) {
+            if (page.size() == limit) {
+                break;
+            }
+            Basket basket = basketsByUser.get(userId);
+            if (basket != null) {
+                page.add(basket);
+            }
+        }
+        return page;
+    }
+}
@@ -0,0 +1,148 @@
+package com.shop.store;
+
+import com.shop.journal.Journal;
+
+import java.util.Arrays;
+
+/**
+ * Stock of a store running as one node of a cluster. Every node has the whole catalog, but
+ * each product's stock is counted only by the node that owns it, picked by product ID, so
+ * nodes cannot sell the same unit twice. Reservations of products owned by other nodes are
+ * forwarded to them.
+ *
+ * <p>A multi-product reservation spanning nodes reserves the local products first and then
+ * each remote node in ascending order. If a node turns it down, or cannot be reached, what
+ * was already reserved is released again. Stock is never oversold, but while a reservation
+ * is being undone other requests can briefly see those units as taken. A node that reserved
+ * stock but whose reply was lost keeps those units until they are put back by hand.
+ *
+ * <p>Calls for products owned by other nodes block until the owner replies or the remote
+ * inventory times out, so callers make them without holding a basket monitor.
+ */
+public class PartitionedStockReservations extends StockReservations {
+
+    private final int node;
+
+    private final int nodeCount;
+
+    private final RemoteInventory remote;
+
+    public PartitionedStockReservations(ProductCatalog catalog,
+                                        Journal journal,
+                                        int node,
+                                        int nodeCount,
+                                        RemoteInventory remote) {
+        super(catalog, journal);
+        if (node < 0 || node >= nodeCount) {
+            throw new IllegalArgumentException("Node " + node + " is not one of " + nodeCount + " nodes");
+        }
+        this.node = node;
+        this.nodeCount = nodeCount;
+        this.remote = remote;
+    }
+
+    /**
+     * @return the index of the node that owns the stock of the product
+     */
+    public static int ownerOf(int productId, int nodeCount) {
+        return Math.floorMod(productId, nodeCount);
+    }
+
+    @Override
+    public boolean owns(int productId) {
+        return ownerOf(productId, nodeCount) == node;
+    }
+
+    @Override
+    public boolean reserve(int productId, int quantity) {
+        checkPositive(quantity);
+        if (owns(productId)) {
+            return super.reserve(productId, quantity);
+        }
+        return remote.reserveAll(ownerOf(productId, nodeCount), new int[]{productId}, new int[]{quantity});
+    }
+
+    @Override
+    public boolean reserveAll(int[] productIds, int[] quantities) {
+        checkReservation(productIds, quantities);
+        int[] owners = new int[productIds.length];
+        boolean allLocal = true;
+        for (int i = 0; i < productIds.length; i++) {
+            owners[i] = ownerOf(productIds[i], nodeCount);
+            allLocal &= owners[i] == node;
+        }
+        if (allLocal) {
+            return super.reserveAll(productIds, quantities);
+        }
+        if (!super.reserveAll(select(productIds, owners, node), select(quantities, owners, node))) {
+            return false;
+        }
+        int reservedUpTo = -1;
+        try {
+            for (int owner = 0; owner < nodeCount; owner++) {
+                int[] ids = select(productIds, owners, owner);
+                if (owner == node || ids.length == 0) {
+                    continue;
+                }
+                if (!remote.reserveAll(owner, ids, select(quantities, owners, owner))) {
+                    break;
+                }
+                reservedUpTo = owner;
+            }
+            if (reservedUpTo == lastRemoteOwner(owners)) {
+                return true;
+            }
+        } catch (RuntimeException e) {
+            undo(productIds, quantities, owners, reservedUpTo);
+            throw e;
+        }
+        undo(productIds, quantities, owners, reservedUpTo);
+        return false;
+    }
+
+    @Override
+    public void release(int productId, int quantity) {
+        checkNotNegative(quantity);
+        if (owns(productId)) {
+            super.release(productId, quantity);
+        } else if (quantity != 0) {
+            remote.releaseAll(ownerOf(productId, nodeCount), new int[]{productId}, new int[]{quantity});
+        }
+    }
+
+    // Releases the local products and those of remote nodes up to the given one
+    private void undo(int[] productIds, int[] quantities, int[] owners, int reservedUpTo) {
+        for (int i = 0; i < productIds.length; i++) {
+            if (owners[i] == node) {
+                super.release(productIds[i], quantities[i]);
+            }
+        }
+        for (int owner = 0; owner <= reservedUpTo; owner++) {
+            int[] ids = select(productIds, owners, owner);
+            if (owner != node && ids.length > 0) {
+                remote.releaseAll(owner, ids, select(quantities, owners, owner));
+            }
+        }
+    }
+
+    private int lastRemoteOwner(int[] owners) {
+        int last = -1;
+        for (int owner : owners) {
+            if (owner != node) {
+                last = Math.max(last, owner);
+            }
+        }
+        return last;
+    }
+
+    private static int[] select(int[] values, int[] owners, int owner) {
+        int[] selected = new int[values.length];
+        int count = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (owners[i] == owner) {
+                selected[count++] = values[i];
+            }
+        }
+        return Arrays.copyOf(selected, count);
+    }
+}
@@ -0,0 +1,323 @@
+package com.shop.store;
+
+import com.shop.collections.IntObjectHashMap;
+import com.shop.collections.SortedIntSet;
+import com.shop.journal.Journal;
+import com.shop.models.Product;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * In-memory product catalog indexed by product ID and by case-insensitive name,
+ * shared by the basket and store resources.
+ *
+ * <p>Products are partitioned by ID into shards, each a map guarded by its own lock. Lookups by
+ * ID, which every basket request makes, are optimistic reads that write no shared memory, so
+ * they scale with cores instead of contending on a single reader count. Writes only lock the
+ * shard of the product they change. Names are unique across shards, which is enforced by
+ * claiming the name in a concurrent index before the product is added to its shard.
+ *
+ * <p>Stock counts are kept off the heap in a {@link StockSlab}. The catalog holds a copy of each
+ * product added to it whose quantity reads and writes the slab, so stock changes allocate
+ * nothing and a large catalog keeps no boxed count per product in the old generation.
+ */
+public class ProductCatalog {
+
+    private static final int DEFAULT_SHARDS = 64;
+
+    private final Shard[] shards;
+
+    // Shifts a hash down to its top bits, which pick the shard
+    private final int shardShift;
+
+    // Normalized product name to product
+    private final ConcurrentMap<String, Product> productsByName;
+
+    private final Journal journal;
+
+    private final StockSlab stock = new StockSlab();
+
+    // Ordered product IDs for paging; only touched when a product is added or removed. Guarded
+    // by itself and updated under the shard lock of the product, after its shard map.
+    private final SortedIntSet productIds;
+
+    public ProductCatalog() {
+        this(16);
+    }
+
+    public ProductCatalog(int expectedSize) {
+        this(expectedSize, Journal.NONE);
+    }
+
+    public ProductCatalog(int expectedSize, Journal journal) {
+        this(expectedSize, DEFAULT_SHARDS, journal);
+    }
+
+    public ProductCatalog(int expectedSize, int shardCount, Journal journal) {
+        if (Integer.bitCount(shardCount) != 1) {
+            throw new IllegalArgumentException("Shard count must be a power of two");
+        }
+        this.shards = new Shard[shardCount];
+        this.shardShift = Integer.numberOfLeadingZeros(shardCount) + 1;
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(Math.max(16, expectedSize / shardCount));
+        }
+        this.productsByName = new ConcurrentHashMap<>(expectedSize * 2);
+        this.productIds = new SortedIntSet(expectedSize);
+        this.journal = journal;
+    }
+
+    public Product get(int productId) {
+        return shardFor(productId).get(productId);
+    }
+
+    public Product findByName(String name) {
+        if (name == null) {
+            return null;
+        }
+        return productsByName.get(normalize(name));
+    }
+
+    /**
+     * Adds the product unless another product already uses the same name, ignoring case.
+     *
+     * @return false if the name is already taken
+     */
+    public boolean add(Product product) {
+        Product stocked = new StockedProduct(product, stock);
+        if (product.getName() != null && productsByName.putIfAbsent(normalize(product.getName()), stocked) != null) {
+            return false;
+        }
+        Shard shard = shardFor(product.getId());
+        long stamp = shard.lock.writeLock();
+        try {
+            shard.products.put(product.getId(), stocked);
+            stock.set(product.getId(), quantityOf(product));
+            indexId(product.getId());
+            journal.productChanged(stocked);
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+        return true;
+    }
+
+    /**
+     * Adds a batch of products, skipping those whose name is already taken by the catalog or
+     * by an earlier product of the batch.
+     *
+     * @return the products that were not added
+     */
+    public List<Product> addAll(List<Product> products) {
+        List<Product> rejected = new ArrayList<>();
+        for (Product product : products) {
+            if (!add(product)) {
+                rejected.add(product);
+            }
+        }
+        return rejected;
+    }
+
+    /**
+     * Replaces the product with the same ID.
+     *
+     * @return the replaced product, or null if no product has that ID
+     */
+    public Product replace(Product product) {
+        Product stocked = new StockedProduct(product, stock);
+        Shard shard = shardFor(product.getId());
+        long stamp = shard.lock.writeLock();
+        try {
+            Product previous = shard.products.get(product.getId());
+            if (previous != null) {
+                shard.products.put(product.getId(), stocked);
+                stock.set(product.getId(), quantityOf(product));
+                reindexName(previous, stocked);
+                journal.productChanged(stocked);
+            }
+            return previous;
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Adds the product, or replaces the one with the same ID, without checking for a duplicate
+     * name. Meant for restoring products that were unique when first added.
+     */
+    public void put(Product product) {
+        Product stocked = new StockedProduct(product, stock);
+        Shard shard = shardFor(product.getId());
+        long stamp = shard.lock.writeLock();
+        try {
+            Product previous = shard.products.put(product.getId(), stocked);
+            stock.set(product.getId(), quantityOf(product));
+            if (previous == null) {
+                indexId(product.getId());
+            }
+            reindexName(previous, stocked);
+            journal.productChanged(stocked);
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+    }
+
+    public Product remove(int productId) {
+        Shard shard = shardFor(productId);
+        long stamp = shard.lock.writeLock();
+        try {
+            Product previous = shard.products.remove(productId);
+            if (previous != null) {
+                stock.set(productId, 0);
+                synchronized (productIds) {
+                    productIds.remove(productId);
+                }
+                reindexName(previous, null);
+                journal.productRemoved(productId);
+            }
+            return previous;
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the stock count of the product, 0 if it is not in the catalog
+     */
+    public int quantityOf(int productId) {
+        return stock.get(productId);
+    }
+
+    /**
+     * Sets the stock count of a product in the catalog without boxing it. The caller holds the
+     * stock lock of the product.
+     */
+    public void setQuantity(int productId, int quantity) {
+        stock.set(productId, quantity);
+    }
+
+    /**
+     * @return the bytes taken outside the heap by stock counts
+     */
+    public long getOffHeapBytes() {
+        return stock.offHeapBytes();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            long stamp = shard.lock.readLock();
+            try {
+                size += shard.products.size();
+            } finally {
+                shard.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return a copy of all products ordered by ID
+     */
+    public List<Product> values() {
+        List<Product> products = new ArrayList<>();
+        for (Shard shard : shards) {
+            long stamp = shard.lock.readLock();
+            try {
+                products.addAll(shard.products.values());
+            } finally {
+                shard.lock.unlockRead(stamp);
+            }
+        }
+        products.sort(Comparator.comparing(Product::getId));
+        return products;
+    }
+
+    /**
+     * @return up to limit products with an ID greater than afterId, ordered by ID
+     */
+    public List<Product> page(int afterId, int limit) {
+        int[] ids;
+        synchronized (productIds) {
+            ids = productIds.valuesAfter(afterId, limit);
+        }
+        List<Product> page = new ArrayList<>(ids.length);
+        for (int productId : ids) {
+            // Skips a product removed since its ID was read
+            Product product = get(productId);
+            if (product != null) {
+                page.add(product);
+            }
+        }
+        return page;
+    }
+
+    private void indexId(int productId) {
+        synchronized (productIds) {
+            productIds.add(productId);
+        }
+    }
+
+    // Caller holds the write lock of the shard of the product
+    private void reindexName(Product previous, Product product) {
+        if (previous != null && previous.getName() != null) {
+            productsByName.remove(normalize(previous.getName()), previous);
+        }
+        if (product != null && product.getName() != null) {
+            productsByName.put(normalize(product.getName()), product);
+        }
+    }
+
+    private static int quantityOf(Product product) {
+        return product.getQuantity() != null ? product.getQuantity() : 0;
+    }
+
+    // Uses the top bits of the hash, as the shard maps index their slots by the low bits of the
+    // same hash and would otherwise only ever start probing at 1 in every shard count slots
+    private Shard shardFor(int productId) {
+        int h = productId * 0x9E3779B9;
+        return shards[(int) ((h & 0xFFFFFFFFL) >>> shardShift)];
+    }
+
+    private static String normalize(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private static class Shard {
+
+        final IntObjectHashMap<Product> products;
+
+        final StampedLock lock = new StampedLock();
+
+        Shard(int expectedSize) {
+            this.products = new IntObjectHashMap<>(expectedSize);
+        }
+
+        Product get(int productId) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                Product product;
+                try {
+                    product = products.get(productId);
+                } catch (RuntimeException e) {
+                    // A concurrent resize can leave the table torn for an optimistic reader
+                    product = null;
+                }
+                if (lock.validate(stamp)) {
+                    return product;
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return products.get(productId);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.shop.store;
+
+import com.google.gson.stream.MalformedJsonException;
+import com.shop.dto.ImportReport;
+import com.shop.journal.Journal;
+import com.shop.models.Product;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams products from JSON into the catalog in batches, assigning each a new ID from the
+ * shared counter and skipping those whose name is already taken. IDs given to products that
+ * are then rejected are journaled, so they are not handed out again after a restart.
+ */
+public class ProductImporter {
+
+    private final ProductCatalog catalog;
+
+    private final AtomicLong counter;
+
+    private final Journal journal;
+
+    public ProductImporter(ProductCatalog catalog, AtomicLong counter) {
+        this(catalog, counter, Journal.NONE);
+    }
+
+    public ProductImporter(ProductCatalog catalog, AtomicLong counter, Journal journal) {
+        this.catalog = catalog;
+        this.counter = counter;
+        this.journal = journal;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the input is not valid product JSON; batches committed
+     *                                  before the malformed entry are kept
+     */
+    public ImportReport importFrom(Reader reader, int batchSize) throws IOException {
+        long start = System.nanoTime();
+        int imported = 0;
+        int rejected = 0;
+        List<Product> batch = new ArrayList<>(batchSize);
+        try (ProductJsonReader products = new ProductJsonReader(reader)) {
+            for (Product product = products.next(); product != null; product = products.next()) {
+                if (catalog.findByName(product.getName()) != null) {
+                    rejected++;
+                    continue;
+                }
+                product.setId(Math.toIntExact(counter.incrementAndGet()));
+                batch.add(product);
+                if (batch.size() == batchSize) {
+                    int batchRejected = addBatch(batch);
+                    imported += batch.size() - batchRejected;
+                    rejected += batchRejected;
+                    batch.clear();
+                }
+            }
+            int batchRejected = addBatch(batch);
+            imported += batch.size() - batchRejected;
+            rejected += batchRejected;
+        } catch (MalformedJsonException | EOFException | IllegalStateException | NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed product data, " + imported + " products were imported before it", e);
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return ImportReport.builder()
+                .imported(imported)
+                .rejected(rejected)
+                .elapsedMillis(elapsedMillis)
+                .productsPerSecond(imported * 1000.0 / Math.max(1, elapsedMillis))
+                .build();
+    }
+
+    // Products added are journaled with their IDs, so only a rejection needs its own record
+    private int addBatch(List<Product> batch) {
+        int rejected = catalog.addAll(batch).size();
+        if (rejected > 0) {
+            journal.productIdsIssued(batch.get(batch.size() - 1).getId());
+        }
+        return rejected;
+    }
+}
@@ -0,0 +1,85 @@
+package com.shop.store;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.shop.models.Product;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads products one at a time from either a JSON array or newline-delimited JSON objects,
+ * without buffering the whole document.
+ */
+public class ProductJsonReader implements Closeable {
+
+    private final JsonReader json;
+
+    private boolean inArray;
+
+    public ProductJsonReader(Reader reader) {
+        this.json = new JsonReader(reader);
+        // Lenient parsing accepts several top-level objects, one per line
+        this.json.setLenient(true);
+    }
+
+    /**
+     * @return the next product, or null once the input is exhausted
+     */
+    public Product next() throws IOException {
+        JsonToken token = json.peek();
+        if (token == JsonToken.BEGIN_ARRAY && !inArray) {
+            json.beginArray();
+            inArray = true;
+            token = json.peek();
+        }
+        if (token == JsonToken.END_ARRAY && inArray) {
+            json.endArray();
+            inArray = false;
+            token = json.peek();
+        }
+        if (token == JsonToken.END_DOCUMENT) {
+            return null;
+        }
+        return readProduct();
+    }
+
+    private Product readProduct() throws IOException {
+        Product product = new Product();
+        json.beginObject();
+        while (json.hasNext()) {
+            String field = json.nextName();
+            if (json.peek() == JsonToken.NULL) {
+                json.nextNull();
+                continue;
+            }
+            switch (field) {
+                case "id":
+                    product.setId(json.nextInt());
+                    break;
+                case "name":
+                    product.setName(json.nextString());
+                    break;
+                case "price":
+                    product.setPrice(json.nextDouble());
+                    break;
+                case "description":
+                    product.setDescription(json.nextString());
+                    break;
+                case "quantity":
+                    product.setQuantity(json.nextInt());
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        return product;
+    }
+
+    @Override
+    public void close() throws IOException {
+        json.close();
+    }
+}
@@ -0,0 +1,19 @@
+package com.shop.store;
+
+/**
+ * Stock operations on the node of a cluster that owns the products.
+ */
+public interface RemoteInventory {
+
+    /**
+     * Takes the given quantities out of the stock of the node, either all of them or none.
+     *
+     * @return false if any product is unknown to the node or has too few units available
+     */
+    boolean reserveAll(int node, int[] productIds, int[] quantities);
+
+    /**
+     * Puts the given quantities back into the stock of the node.
+     */
+    void releaseAll(int node, int[] productIds, int[] quantities);
+}
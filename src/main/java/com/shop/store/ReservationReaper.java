@@ -0,0 +1,219 @@
+package com.shop.store;
+
+import com.shop.collections.IntIntArrayMap;
+import com.shop.journal.Journal;
+import com.shop.models.Basket;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Puts the stock held by idle baskets back into inventory. Every change to a basket pushes its
+ * deadline out by the reservation TTL; once a basket has been left alone past its deadline,
+ * all of its lines are released and the basket is emptied.
+ *
+ * <p>Deadlines are kept on a hashed timer wheel: a ring of slots, one per tick, each holding
+ * the baskets due in that tick of some rotation. Scheduling and refreshing are O(1) and the
+ * reaper only looks at the slot of the current tick, so millions of idle baskets cost neither
+ * a scheduled task each nor a scan of every basket. A refresh does not move the wheel entry;
+ * the current deadline is kept in a map and checked when the entry comes due, which puts the
+ * entry back on the wheel if the basket was touched since.
+ */
+public class ReservationReaper {
+
+    private static final int WHEEL_SIZE = 512;
+
+    private final BasketRepository baskets;
+
+    private final StockReservations stock;
+
+    private final Journal journal;
+
+    private final Listener listener;
+
+    private final long ttlNanos;
+
+    private final long tickNanos;
+
+    private final LongSupplier clock;
+
+    private final long start;
+
+    // User ID to the time at which the basket expires, only for baskets with lines
+    private final ConcurrentMap<Integer, Long> deadlines = new ConcurrentHashMap<>();
+
+    private final Queue<Timeout>[] wheel;
+
+    // Last tick processed, only advanced by the reaper
+    private volatile long tick;
+
+    public ReservationReaper(BasketRepository baskets,
+                             StockReservations stock,
+                             Journal journal,
+                             Listener listener,
+                             long ttl,
+                             long tick,
+                             TimeUnit unit) {
+        this(baskets, stock, journal, listener, ttl, tick, unit, System::nanoTime);
+    }
+
+    @SuppressWarnings("unchecked")
+    ReservationReaper(BasketRepository baskets,
+                      StockReservations stock,
+                      Journal journal,
+                      Listener listener,
+                      long ttl,
+                      long tick,
+                      TimeUnit unit,
+                      LongSupplier clock) {
+        this.baskets = baskets;
+        this.stock = stock;
+        this.journal = journal;
+        this.listener = listener;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.tickNanos = Math.max(1, unit.toNanos(tick));
+        this.clock = clock;
+        this.start = clock.getAsLong();
+        this.wheel = new Queue[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * A reaper that never expires anything.
+     */
+    public static ReservationReaper disabled() {
+        return new ReservationReaper(null, null, Journal.NONE, (userId, units) -> { }, 0, 1, TimeUnit.SECONDS);
+    }
+
+    public boolean isEnabled() {
+        return ttlNanos > 0;
+    }
+
+    /**
+     * Pushes the deadline of the basket out by the TTL, or forgets it if the basket is empty.
+     * Call while holding the basket monitor, after changing the basket.
+     */
+    public void touch(Basket basket) {
+        if (!isEnabled()) {
+            return;
+        }
+        if (basket.getItems().isEmpty()) {
+            deadlines.remove(basket.getUserId());
+            return;
+        }
+        long deadline = clock.getAsLong() + ttlNanos;
+        if (deadlines.put(basket.getUserId(), deadline) == null) {
+            schedule(basket.getUserId(), deadline);
+        }
+    }
+
+    /**
+     * Releases the baskets that came due since the last call, up to now. Called every tick
+     * from a single thread.
+     *
+     * @return the number of baskets emptied
+     */
+    public int advance() {
+        long now = clock.getAsLong();
+        long nowTick = (now - start) / tickNanos;
+        int released = 0;
+        while (tick < nowTick) {
+            long current = tick + 1;
+            Iterator<Timeout> due = wheel[(int) (current & (WHEEL_SIZE - 1))].iterator();
+            while (due.hasNext()) {
+                Timeout timeout = due.next();
+                if (timeout.tick > current) {
+                    // Due in a later rotation
+                    continue;
+                }
+                due.remove();
+                Long deadline = deadlines.get(timeout.userId);
+                if (deadline == null) {
+                    continue;
+                }
+                if (deadline > now) {
+                    schedule(timeout.userId, deadline);
+                } else if (release(timeout.userId, now)) {
+                    released++;
+                }
+            }
+            tick = current;
+        }
+        if (released > 0) {
+            journal.sync();
+        }
+        return released;
+    }
+
+    public int size() {
+        return deadlines.size();
+    }
+
+    private boolean release(int userId, long now) {
+        Basket basket = baskets.get(userId);
+        if (basket == null) {
+            deadlines.remove(userId);
+            return false;
+        }
+        IntIntArrayMap items;
+        synchronized (basket) {
+            Long deadline = deadlines.get(userId);
+            if (deadline == null) {
+                return false;
+            }
+            if (deadline > now) {
+                // Touched after the wheel entry was taken off
+                schedule(userId, deadline);
+                return false;
+            }
+            deadlines.remove(userId);
+            items = new IntIntArrayMap(basket.getItems());
+            basket.clear();
+            journal.basketCleared(userId);
+        }
+        // Released after leaving the monitor, as stock owned by another node is released over HTTP
+        int units = 0;
+        for (Map.Entry<Integer, Integer> item : items.entrySet()) {
+            stock.release(item.getKey(), item.getValue());
+            units += item.getValue();
+        }
+        listener.released(userId, units);
+        return true;
+    }
+
+    private void schedule(int userId, long deadline) {
+        // Round up so a basket is never released before its deadline, and never into a tick
+        // the reaper has already passed
+        long due = Math.max((deadline - start + tickNanos - 1) / tickNanos, tick + 1);
+        wheel[(int) (due & (WHEEL_SIZE - 1))].add(new Timeout(userId, due));
+    }
+
+    public interface Listener {
+
+        /**
+         * Called for each basket emptied by the reaper while its monitor is held, e.g. to drop
+         * its price quote.
+         */
+        void released(int userId, int units);
+    }
+
+    private static class Timeout {
+
+        final int userId;
+
+        final long tick;
+
+        Timeout(int userId, long tick) {
+            this.userId = userId;
+            this.tick = tick;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.shop.store;
+
+import com.shop.journal.Journal;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Moves product stock in and out of baskets. Each product ID hashes to one of a fixed set of
+ * lock stripes, so stock changes on the same product are serialized while changes on products
+ * in different stripes proceed in parallel.
+ */
+public class StockReservations {
+
+    private static final int DEFAULT_STRIPES = 256;
+
+    private final ProductCatalog catalog;
+
+    private final ReentrantLock[] stripes;
+
+    private final Journal journal;
+
+    public StockReservations(ProductCatalog catalog) {
+        this(catalog, DEFAULT_STRIPES, Journal.NONE);
+    }
+
+    public StockReservations(ProductCatalog catalog, Journal journal) {
+        this(catalog, DEFAULT_STRIPES, journal);
+    }
+
+    public StockReservations(ProductCatalog catalog, int stripeCount) {
+        this(catalog, stripeCount, Journal.NONE);
+    }
+
+    public StockReservations(ProductCatalog catalog, int stripeCount, Journal journal) {
+        if (Integer.bitCount(stripeCount) != 1) {
+            throw new IllegalArgumentException("Stripe count must be a power of two");
+        }
+        this.catalog = catalog;
+        this.journal = journal;
+        this.stripes = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Takes the given quantity of the product out of stock.
+     *
+     * @return false, leaving stock untouched, if the product is unknown or has fewer units available
+     * @throws IllegalArgumentException if the quantity is not positive
+     */
+    public boolean reserve(int productId, int quantity) {
+        checkPositive(quantity);
+        ReentrantLock lock = stripeFor(productId);
+        lock.lock();
+        try {
+            if (catalog.get(productId) == null) {
+                return false;
+            }
+            int available = catalog.quantityOf(productId);
+            if (available < quantity) {
+                return false;
+            }
+            catalog.setQuantity(productId, available - quantity);
+            journal.stockChanged(productId, available - quantity);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the given quantities of several products out of stock, either all of them or none.
+     * The stripes involved are locked in ascending order, so concurrent multi-product
+     * reservations cannot deadlock. Product IDs must be distinct.
+     *
+     * @return false, leaving stock untouched, if any product is unknown or has too few units available
+     * @throws IllegalArgumentException if any quantity is not positive or a product ID repeats
+     */
+    public boolean reserveAll(int[] productIds, int[] quantities) {
+        checkReservation(productIds, quantities);
+        int[] lockedStripes = lockAll(productIds);
+        try {
+            for (int i = 0; i < productIds.length; i++) {
+                if (catalog.get(productIds[i]) == null || catalog.quantityOf(productIds[i]) < quantities[i]) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < productIds.length; i++) {
+                int remaining = catalog.quantityOf(productIds[i]) - quantities[i];
+                catalog.setQuantity(productIds[i], remaining);
+                journal.stockChanged(productIds[i], remaining);
+            }
+            return true;
+        } finally {
+            unlockAll(lockedStripes);
+        }
+    }
+
+    /**
+     * Puts the given quantity of the product back into stock. Does nothing if the product has
+     * been removed from the catalog.
+     *
+     * @throws IllegalArgumentException if the quantity is negative
+     */
+    public void release(int productId, int quantity) {
+        checkNotNegative(quantity);
+        ReentrantLock lock = stripeFor(productId);
+        lock.lock();
+        try {
+            if (catalog.get(productId) != null) {
+                int quantityInStock = catalog.quantityOf(productId) + quantity;
+                catalog.setQuantity(productId, quantityInStock);
+                journal.stockChanged(productId, quantityInStock);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return whether this store keeps the authoritative stock count of the product
+     */
+    public boolean owns(int productId) {
+        return true;
+    }
+
+    /**
+     * Runs the action while holding the stock lock of the product, e.g. to replace the product
+     * without losing a concurrent reservation.
+     */
+    public <T> T withStockLock(int productId, Supplier<T> action) {
+        ReentrantLock lock = stripeFor(productId);
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static void checkPositive(int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be positive: " + quantity);
+        }
+    }
+
+    // Each product is checked against its stock once, so a repeated ID would be taken twice
+    static void checkReservation(int[] productIds, int[] quantities) {
+        for (int quantity : quantities) {
+            checkPositive(quantity);
+        }
+        int[] sorted = productIds.clone();
+        Arrays.sort(sorted);
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] == sorted[i - 1]) {
+                throw new IllegalArgumentException("Product ID repeated: " + sorted[i]);
+            }
+        }
+    }
+
+    static void checkNotNegative(int quantity) {
+        if (quantity < 0) {
+            throw new IllegalArgumentException("Quantity must not be negative: " + quantity);
+        }
+    }
+
+    private int[] lockAll(int[] productIds) {
+        int[] indexes = new int[productIds.length];
+        for (int i = 0; i < productIds.length; i++) {
+            indexes[i] = stripeIndex(productIds[i]);
+        }
+        indexes = Arrays.stream(indexes).sorted().distinct().toArray();
+        for (int index : indexes) {
+            stripes[index].lock();
+        }
+        return indexes;
+    }
+
+    private void unlockAll(int[] indexes) {
+        for (int i = indexes.length - 1; i >= 0; i--) {
+            stripes[indexes[i]].unlock();
+        }
+    }
+
+    private ReentrantLock stripeFor(int productId) {
+        return stripes[stripeIndex(productId)];
+    }
+
+    int stripeIndex(int productId) {
+        int h = productId * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (stripes.length - 1);
+    }
+}
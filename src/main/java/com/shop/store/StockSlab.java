@@ -0,0 +1,79 @@
+package com.shop.store;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Stock counts of the catalog kept outside the Java heap, in direct buffers indexed by product
+ * ID. A catalog of millions of products holds no boxed count per product, and a stock change
+ * writes an int in place instead of allocating one. A buffer for each block of consecutive IDs
+ * is allocated when the first product in that block is given stock.
+ *
+ * <p>Callers serialize changes to the count of a product, through its stock lock. Reads take
+ * no lock and see either the old or the new count.
+ */
+final class StockSlab {
+
+    private static final int CHUNK_BITS = 16;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    // Replaced by a longer copy when a chunk is added, so readers never see a torn array
+    private volatile IntBuffer[] chunks = new IntBuffer[0];
+
+    /**
+     * @return the count of the product, 0 if it was never set
+     */
+    int get(int productId) {
+        IntBuffer chunk = chunkFor(productId);
+        return chunk != null ? chunk.get(productId & (CHUNK_SIZE - 1)) : 0;
+    }
+
+    void set(int productId, int quantity) {
+        IntBuffer chunk = chunkFor(productId);
+        if (chunk == null) {
+            if (quantity == 0) {
+                return;
+            }
+            chunk = allocate(productId);
+        }
+        chunk.put(productId & (CHUNK_SIZE - 1), quantity);
+    }
+
+    /**
+     * @return the bytes of memory taken outside the heap
+     */
+    long offHeapBytes() {
+        long bytes = 0;
+        for (IntBuffer chunk : chunks) {
+            if (chunk != null) {
+                bytes += (long) chunk.capacity() * Integer.BYTES;
+            }
+        }
+        return bytes;
+    }
+
+    private IntBuffer chunkFor(int productId) {
+        IntBuffer[] current = chunks;
+        // Negative IDs shift to an index past the end
+        int index = productId >>> CHUNK_BITS;
+        return index < current.length ? current[index] : null;
+    }
+
+    private synchronized IntBuffer allocate(int productId) {
+        if (productId < 0) {
+            throw new IllegalArgumentException("Stock cannot be kept for product ID " + productId);
+        }
+        int index = productId >>> CHUNK_BITS;
+        IntBuffer[] current = chunks;
+        if (index < current.length && current[index] != null) {
+            return current[index];
+        }
+        IntBuffer[] grown = Arrays.copyOf(current, Math.max(current.length, index + 1));
+        grown[index] = ByteBuffer.allocateDirect(CHUNK_SIZE * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+        chunks = grown;
+        return grown[index];
+    }
+}
@@ -0,0 +1,27 @@
+package com.shop.store;
+
+import com.shop.models.Product;
+
+/**
+ * A product as held by the catalog, whose stock count lives in the catalog's {@link StockSlab}
+ * rather than in a boxed field of its own.
+ */
+class StockedProduct extends Product {
+
+    private final StockSlab stock;
+
+    StockedProduct(Product product, StockSlab stock) {
+        super(product.getId(), product.getName(), product.getPriceInMinorUnits(), product.getDescription(), null);
+        this.stock = stock;
+    }
+
+    @Override
+    public Integer getQuantity() {
+        return stock.get(getId());
+    }
+
+    @Override
+    public void setQuantity(Integer quantity) {
+        stock.set(getId(), quantity != null ? quantity : 0);
+    }
+}
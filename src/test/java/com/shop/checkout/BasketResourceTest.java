@@ -1,11 +1,14 @@
 package com.shop.checkout;
 
+import com.shop.dto.BasketBatchResult;
 import com.shop.dto.CheckoutResponse;
+import com.shop.dto.Page;
 import com.shop.dto.UpdateBasketRequest;
 import com.shop.models.Basket;
 import com.shop.models.BundleDeal;
 import com.shop.models.DiscountDeal;
 import com.shop.models.Product;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,12 +18,24 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @ExtendWith(SpringExtension.class)
 @ContextConfiguration(classes = TestStoreConfiguration.class)
@@ -32,6 +47,9 @@ public class BasketResourceTest {
     @Autowired
     StoreResource storeResource;
 
+    @Autowired
+    MeterRegistry meterRegistry;
+
     @Test
     void should_get_baskets(){
         List<Basket> baskets = unit.getBaskets();
@@ -44,6 +62,27 @@ public class BasketResourceTest {
         assertEquals(1, baskets.get(1).getItems().get(2));
     }
 
+    @Test
+    void should_page_through_baskets(){
+        Page<Basket> first = unit.getBasketPage(0, 1);
+        assertEquals(1, first.getItems().size());
+        assertEquals(1001, first.getItems().get(0).getUserId());
+        assertEquals(1001, first.getNextCursor());
+
+        Page<Basket> last = unit.getBasketPage(first.getNextCursor(), 10);
+        assertEquals(1, last.getItems().size());
+        assertEquals(1002, last.getItems().get(0).getUserId());
+        assertEquals(1, last.getItems().get(0).getItems().get(2));
+        assertNull(last.getNextCursor());
+    }
+
+    @Test
+    void should_stream_baskets_as_ndjson() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        unit.streamBaskets().writeTo(out);
+        assertEquals(2, out.toString("UTF-8").split("\n").length);
+    }
+
     @Test
     void should_get_basket(){
         Basket basket = unit.getBasket(1002);
@@ -144,6 +183,81 @@ public class BasketResourceTest {
         assertEquals("Insufficient product quantity", exception.getReason());
     }
 
+    @Test
+    void should_not_add_non_positive_quantity_to_basket(){
+        UpdateBasketRequest request = UpdateBasketRequest.builder()
+                .userId(1001)
+                .productId(1)
+                .quantity(-5)
+                .build();
+
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, ()-> {
+            unit.addProductToBasket(request);
+
+        });
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+        assertEquals(100, storeResource.getProduct(1).getQuantity());
+    }
+
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    void should_add_batch_of_products_to_baskets(){
+        List<BasketBatchResult> results = unit.addProductsToBaskets(Arrays.asList(
+                UpdateBasketRequest.builder().userId(1001).productId(2).quantity(1).build(),
+                UpdateBasketRequest.builder().userId(1003).productId(1).quantity(4).build(),
+                UpdateBasketRequest.builder().userId(1001).productId(1).quantity(5).build(),
+                UpdateBasketRequest.builder().userId(1003).productId(1).quantity(6).build()
+        ));
+        assertEquals(2, results.size());
+        assertEquals(1001, results.get(0).getUserId());
+        assertTrue(results.get(0).isApplied());
+        assertEquals(1003, results.get(1).getUserId());
+        assertTrue(results.get(1).isApplied());
+        assertEquals(15, unit.getBasket(1001).getItems().get(1));
+        assertEquals(1, unit.getBasket(1001).getItems().get(2));
+        assertEquals(10, unit.getBasket(1003).getItems().get(1));
+        assertEquals(85, storeResource.getProduct(1).getQuantity());
+        assertEquals(4, storeResource.getProduct(2).getQuantity());
+    }
+
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    void should_not_apply_any_line_of_basket_batch_if_one_is_short(){
+        List<BasketBatchResult> results = unit.addProductsToBaskets(Arrays.asList(
+                UpdateBasketRequest.builder().userId(1001).productId(1).quantity(5).build(),
+                UpdateBasketRequest.builder().userId(1001).productId(2).quantity(6).build(),
+                UpdateBasketRequest.builder().userId(1002).productId(3).quantity(1).build(),
+                UpdateBasketRequest.builder().userId(1003).productId(2).quantity(5).build()
+        ));
+        assertFalse(results.get(0).isApplied());
+        assertEquals("Insufficient product quantity", results.get(0).getReason());
+        assertFalse(results.get(1).isApplied());
+        assertEquals("Product Not Found", results.get(1).getReason());
+        assertTrue(results.get(2).isApplied());
+        assertEquals(10, unit.getBasket(1001).getItems().get(1));
+        assertEquals(null, unit.getBasket(1001).getItems().get(2));
+        assertEquals(100, storeResource.getProduct(1).getQuantity());
+        assertEquals(0, storeResource.getProduct(2).getQuantity());
+    }
+
+    @Test
+    void should_reject_basket_batch_with_invalid_line(){
+        for (UpdateBasketRequest invalid : Arrays.asList(
+                UpdateBasketRequest.builder().productId(1).quantity(1).build(),
+                UpdateBasketRequest.builder().userId(1003).quantity(1).build(),
+                UpdateBasketRequest.builder().userId(1003).productId(1).build(),
+                UpdateBasketRequest.builder().userId(1003).productId(1).quantity(-4).build())){
+            ResponseStatusException exception = assertThrows(ResponseStatusException.class, ()-> {
+                unit.addProductsToBaskets(Arrays.asList(
+                        UpdateBasketRequest.builder().userId(1001).productId(1).quantity(5).build(),
+                        invalid));
+            });
+            assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+        }
+        assertEquals(10, unit.getBasket(1001).getItems().get(1));
+        assertEquals(100, storeResource.getProduct(1).getQuantity());
+    }
+
     @Test
     @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
     void should_update_quantity_in_basket(){
@@ -161,6 +275,18 @@ public class BasketResourceTest {
         assertEquals(5, storeResource.getProduct(2).getQuantity());
     }
 
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    void should_drop_line_amended_to_zero(){
+        unit.updateProductInBasket(UpdateBasketRequest.builder()
+                .userId(1001)
+                .productId(1)
+                .quantity(0)
+                .build());
+        assertFalse(unit.getBasket(1101).getItems().containsKey(1));
+        assertEquals(110, storeResource.getProduct(1).getQuantity());
+    }
+
     @Test
     @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
     void should_not_update_basket_if_basket_not_found(){
@@ -212,6 +338,22 @@ public class BasketResourceTest {
         assertEquals("Insufficient product quantity", exception.getReason());
     }
 
+    @Test
+    void should_not_update_basket_to_negative_quantity(){
+        UpdateBasketRequest request = UpdateBasketRequest.builder()
+                .userId(1001)
+                .productId(1)
+                .quantity(-1)
+                .build();
+
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, ()-> {
+            unit.updateProductInBasket(request);
+
+        });
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+        assertEquals(10, unit.getBasket(1001).getItems().get(1));
+    }
+
     @Test
     @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
     void should_remove_product_from_basket(){
@@ -257,38 +399,145 @@ public class BasketResourceTest {
         assertEquals("Product Not Found In Basket", exception.getReason());
     }
 
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    void should_conserve_stock_with_concurrent_basket_updates() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < 8; thread++){
+            int userId = 2000 + thread;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 500; i++){
+                    try {
+                        unit.addProductToBasket(UpdateBasketRequest.builder()
+                                .userId(userId)
+                                .productId(1)
+                                .quantity(3)
+                                .build());
+                        unit.updateProductInBasket(UpdateBasketRequest.builder()
+                                .userId(userId)
+                                .productId(1)
+                                .quantity(i % 4)
+                                .build());
+                        if (i % 5 == 0){
+                            unit.removeProductInBasket(1, userId);
+                        }
+                    } catch (ResponseStatusException e){
+                        // Insufficient stock or line already removed
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures){
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        int inBaskets = unit.getBaskets().stream()
+                .mapToInt(basket -> basket.getItems().getOrDefault(1, 0))
+                .sum();
+        int inStock = storeResource.getProduct(1).getQuantity();
+        assertTrue(inStock >= 0);
+        assertEquals(115, inStock + inBaskets);
+    }
+
     @Test
     void should_calculate_price(){
-        assertEquals(BigDecimal.valueOf(56.7), unit.calculatePriceInBasket(1001));;
-        assertEquals(BigDecimal.valueOf(380028.35), unit.calculatePriceInBasket(1002));;
+        assertEquals(new BigDecimal("56.70"), unit.calculatePriceInBasket(1001));;
+        assertEquals(new BigDecimal("380028.35"), unit.calculatePriceInBasket(1002));;
     }
 
     @Test
     void should_calculate_price_with_discounts(){
         storeResource.applyDiscountDeal(1, 0.5);
-        assertEquals(BigDecimal.valueOf(53.865), unit.calculatePriceInBasket(1001));;
-        assertEquals(BigDecimal.valueOf(380025.515), unit.calculatePriceInBasket(1002));;
+        assertEquals(new BigDecimal("53.86"), unit.calculatePriceInBasket(1001));;
+        assertEquals(new BigDecimal("380025.51"), unit.calculatePriceInBasket(1002));;
+    }
+
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    void should_reuse_price_quote_until_basket_changes(){
+        assertEquals(new BigDecimal("56.70"), unit.calculatePriceInBasket(1001));
+        assertEquals(new BigDecimal("56.70"), unit.calculatePriceInBasket(1001));
+        assertEquals(1, unit.getPriceQuoteHits());
+        assertEquals(1, unit.getPriceQuoteMisses());
+
+        unit.addProductToBasket(UpdateBasketRequest.builder().userId(1001).productId(1).quantity(1).build());
+        assertEquals(new BigDecimal("62.37"), unit.calculatePriceInBasket(1001));
+        assertEquals(2, unit.getPriceQuoteHits());
+        assertEquals(1, unit.getPriceQuoteMisses());
+    }
+
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    void should_update_running_total_when_discount_eligibility_flips(){
+        storeResource.applyDiscountDeal(1, 0.5);
+        unit.addProductToBasket(UpdateBasketRequest.builder().userId(1003).productId(1).quantity(1).build());
+        assertEquals(new BigDecimal("5.67"), unit.calculatePriceInBasket(1003));
+
+        unit.addProductToBasket(UpdateBasketRequest.builder().userId(1003).productId(1).quantity(1).build());
+        assertEquals(new BigDecimal("8.50"), unit.calculatePriceInBasket(1003));
+
+        unit.updateProductInBasket(UpdateBasketRequest.builder().userId(1003).productId(1).quantity(1).build());
+        assertEquals(new BigDecimal("5.67"), unit.calculatePriceInBasket(1003));
+
+        unit.addProductsToBaskets(Arrays.asList(
+                UpdateBasketRequest.builder().userId(1003).productId(1).quantity(2).build(),
+                UpdateBasketRequest.builder().userId(1003).productId(2).quantity(1).build()));
+        assertEquals(new BigDecimal("380014.17"), unit.calculatePriceInBasket(1003));
+
+        unit.removeProductInBasket(1, 1003);
+        assertEquals(new BigDecimal("380000.00"), unit.calculatePriceInBasket(1003));
+        assertEquals(1, unit.getPriceQuoteMisses());
+    }
+
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    void should_requote_price_when_product_or_deal_changes(){
+        assertEquals(new BigDecimal("56.70"), unit.calculatePriceInBasket(1001));
+        assertEquals(new BigDecimal("380028.35"), unit.calculatePriceInBasket(1002));
+
+        storeResource.updateProduct(Product.builder()
+                .id(2)
+                .name("Car")
+                .price(370000.0)
+                .description("Fancy car")
+                .quantity(5)
+                .build());
+        assertEquals(new BigDecimal("56.70"), unit.calculatePriceInBasket(1001));
+        assertEquals(new BigDecimal("370028.35"), unit.calculatePriceInBasket(1002));
+        assertEquals(1, unit.getPriceQuoteHits());
+
+        storeResource.applyDiscountDeal(1, 0.5);
+        assertEquals(new BigDecimal("53.86"), unit.calculatePriceInBasket(1001));
+    }
+
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    void should_ignore_discounts_for_products_not_in_basket(){
+        storeResource.applyDiscountDeal(2, 0.5);
+        assertEquals(new BigDecimal("56.70"), unit.calculatePriceInBasket(1001));;
     }
 
     @Test
     @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
     void should_checkout_basket(){
-        CheckoutResponse response1 = unit.checkoutBasket(1001);
+        CheckoutResponse response1 = unit.checkoutBasket(1001, null);
         assertEquals(1, response1.getPurchases().size());
         assertEquals(1, response1.getPurchases().get(0).getId());
         assertEquals(10, response1.getPurchases().get(0).getQuantity());
         assertEquals(0, response1.getGifts().size());
-        assertEquals(BigDecimal.valueOf(56.7), BigDecimal.valueOf(response1.getAmount()));
+        assertEquals(new BigDecimal("56.70"), response1.getAmount());
         assertEquals(0, unit.getBasket(1001).getItems().size());
 
-        CheckoutResponse response2 = unit.checkoutBasket(1002);
+        CheckoutResponse response2 = unit.checkoutBasket(1002, null);
         assertEquals(2, response2.getPurchases().size());
         assertEquals(1, response2.getPurchases().get(0).getId());
         assertEquals(5, response2.getPurchases().get(0).getQuantity());
         assertEquals(2, response2.getPurchases().get(1).getId());
         assertEquals(1, response2.getPurchases().get(1).getQuantity());
         assertEquals(0, response2.getGifts().size());
-        assertEquals(BigDecimal.valueOf(380028.35), BigDecimal.valueOf(response2.getAmount()));
+        assertEquals(new BigDecimal("380028.35"), response2.getAmount());
         assertEquals(0, unit.getBasket(1002).getItems().size());
     }
 
@@ -296,7 +545,7 @@ public class BasketResourceTest {
     @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
     void should_checkout_basket_with_bundle(){
         storeResource.applyBundleDeal(2, 1);
-        CheckoutResponse response = unit.checkoutBasket(1002);
+        CheckoutResponse response = unit.checkoutBasket(1002, null);
         assertEquals(2, response.getPurchases().size());
         assertEquals(1, response.getPurchases().get(0).getId());
         assertEquals(5, response.getPurchases().get(0).getQuantity());
@@ -305,11 +554,52 @@ public class BasketResourceTest {
         assertEquals(1, response.getGifts().size());
         assertEquals(1, response.getGifts().get(0).getId());
         assertEquals(1, response.getGifts().get(0).getQuantity());
-        assertEquals(BigDecimal.valueOf(380028.35), BigDecimal.valueOf(response.getAmount()));
+        assertEquals(new BigDecimal("380028.35"), response.getAmount());
         assertEquals(0, unit.getBasket(1002).getItems().size());
         assertEquals(99, storeResource.getProduct(1).getQuantity());
     }
 
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    void should_replay_checkout_with_same_idempotency_key(){
+        storeResource.applyBundleDeal(2, 1);
+        CheckoutResponse response = unit.checkoutBasket(1002, "retry-1");
+        CheckoutResponse replay = unit.checkoutBasket(1002, "retry-1");
+        assertSame(response, replay);
+        assertEquals(99, storeResource.getProduct(1).getQuantity());
+        assertEquals(1, unit.getCheckoutReplays());
+    }
+
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    void should_not_share_idempotency_keys_between_users(){
+        unit.checkoutBasket(1001, "retry-1");
+        CheckoutResponse response = unit.checkoutBasket(1002, "retry-1");
+        assertEquals(new BigDecimal("380028.35"), response.getAmount());
+        assertEquals(0, unit.getCheckoutReplays());
+    }
+
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    void should_rerun_failed_checkout_with_same_idempotency_key(){
+        storeResource.createProduct(
+                Product.builder()
+                        .id(3)
+                        .name("Headset")
+                        .price(500.00)
+                        .description("Bluetooth Headset")
+                        .quantity(0)
+                        .build()
+        );
+        storeResource.applyBundleDeal(2, 3);
+        assertThrows(ResponseStatusException.class, ()-> unit.checkoutBasket(1002, "retry-1"));
+
+        storeResource.updateProduct(Product.builder().id(3).name("Headset").price(500.00).description("Bluetooth Headset").quantity(1).build());
+        CheckoutResponse response = unit.checkoutBasket(1002, "retry-1");
+        assertEquals(1, response.getGifts().size());
+        assertEquals(0, unit.getCheckoutReplays());
+    }
+
     @Test
     @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
     void should_not_checkout_basket_with_bundle_if_out_of_stock(){
@@ -325,12 +615,75 @@ public class BasketResourceTest {
         storeResource.applyBundleDeal(2, 3);
 
         ResponseStatusException exception = assertThrows(ResponseStatusException.class, ()-> {
-            unit.checkoutBasket(1002);
+            unit.checkoutBasket(1002, null);
         });
         assertEquals(HttpStatus.FORBIDDEN, exception.getStatus());
         assertEquals("Bundle Gift Out of Stock", exception.getReason());
 
     }
 
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    void should_leave_stock_and_basket_untouched_if_any_gift_out_of_stock(){
+        storeResource.createProduct(
+                Product.builder()
+                        .id(3)
+                        .name("Headset")
+                        .price(500.00)
+                        .description("Bluetooth Headset")
+                        .quantity(0)
+                        .build()
+        );
+        storeResource.applyBundleDeal(1, 2);
+        storeResource.applyBundleDeal(2, 3);
+
+        assertThrows(ResponseStatusException.class, ()-> unit.checkoutBasket(1002, null));
+        assertEquals(5, storeResource.getProduct(2).getQuantity());
+        assertEquals(5, unit.getBasket(1002).getItems().get(1));
+        assertEquals(1, unit.getBasket(1002).getItems().get(2));
+    }
+
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    void should_reserve_same_gift_of_several_deals_together(){
+        storeResource.applyBundleDeal(1, 2);
+        storeResource.applyBundleDeal(2, 2);
+        CheckoutResponse response = unit.checkoutBasket(1002, null);
+        assertEquals(2, response.getGifts().size());
+        assertEquals(3, storeResource.getProduct(2).getQuantity());
+    }
+
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    void should_count_stock_rejections(){
+        assertThrows(ResponseStatusException.class, ()-> unit.addProductToBasket(
+                UpdateBasketRequest.builder().userId(1001).productId(2).quantity(6).build()));
+        assertEquals(1, meterRegistry.get("basket.stock.rejections").tag("operation", "add").counter().count());
+    }
 
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    void should_record_checkout_amount_and_deals(){
+        storeResource.applyDiscountDeal(1, 0.5);
+        storeResource.applyBundleDeal(2, 1);
+        unit.checkoutBasket(1002, null);
+        assertEquals(1, meterRegistry.get("basket.checkout.amount").summary().count());
+        assertEquals(380025.51, meterRegistry.get("basket.checkout.amount").summary().totalAmount(), 0.001);
+        assertEquals(1, meterRegistry.get("basket.checkout.deals").tag("type", "discount").counter().count());
+        assertEquals(1, meterRegistry.get("basket.checkout.deals").tag("type", "bundle").counter().count());
+    }
+
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    void should_track_units_held_in_baskets(){
+        assertEquals(16, meterRegistry.get("basket.reserved.units").gauge().value());
+        assertEquals(2, meterRegistry.get("basket.live").gauge().value());
+        unit.addProductToBasket(UpdateBasketRequest.builder().userId(1003).productId(1).quantity(4).build());
+        unit.updateProductInBasket(UpdateBasketRequest.builder().userId(1001).productId(1).quantity(7).build());
+        unit.removeProductInBasket(2, 1002);
+        assertEquals(16, meterRegistry.get("basket.reserved.units").gauge().value());
+        assertEquals(3, meterRegistry.get("basket.live").gauge().value());
+        unit.checkoutBasket(1001, null);
+        assertEquals(9, meterRegistry.get("basket.reserved.units").gauge().value());
+    }
 }
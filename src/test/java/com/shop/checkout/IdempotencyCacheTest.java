@@ -0,0 +1,140 @@
+package com.shop.checkout;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class IdempotencyCacheTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private final AtomicInteger runs = new AtomicInteger();
+
+    @Test
+    void should_run_once_per_key(){
+        IdempotencyCache<Integer> unit = new IdempotencyCache<>(10, 1, TimeUnit.SECONDS, clock::get);
+        assertEquals(1, unit.execute("a", runs::incrementAndGet));
+        assertEquals(1, unit.execute("a", runs::incrementAndGet));
+        assertEquals(2, unit.execute("b", runs::incrementAndGet));
+        assertEquals(1, unit.getReplays());
+    }
+
+    @Test
+    void should_forget_key_after_ttl(){
+        IdempotencyCache<Integer> unit = new IdempotencyCache<>(10, 1, TimeUnit.SECONDS, clock::get);
+        unit.execute("a", runs::incrementAndGet);
+        clock.set(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(2, unit.execute("a", runs::incrementAndGet));
+    }
+
+    @Test
+    void should_evict_oldest_key_when_full(){
+        IdempotencyCache<Integer> unit = new IdempotencyCache<>(2, 1, TimeUnit.SECONDS, clock::get);
+        unit.execute("a", runs::incrementAndGet);
+        unit.execute("b", runs::incrementAndGet);
+        unit.execute("c", runs::incrementAndGet);
+        assertEquals(2, unit.size());
+        assertEquals(4, unit.execute("a", runs::incrementAndGet));
+        assertEquals(3, unit.execute("c", runs::incrementAndGet));
+    }
+
+    @Test
+    void should_forget_failed_runs(){
+        IdempotencyCache<Integer> unit = new IdempotencyCache<>(10, 1, TimeUnit.SECONDS, clock::get);
+        assertThrows(IllegalStateException.class, () -> unit.execute("a", () -> {
+            throw new IllegalStateException();
+        }));
+        assertEquals(1, unit.execute("a", runs::incrementAndGet));
+    }
+
+    @Test
+    void should_not_queue_failed_runs_beyond_limit(){
+        IdempotencyCache<Integer> unit = new IdempotencyCache<>(2, 1, TimeUnit.SECONDS, clock::get);
+        for (int i = 0; i < 100; i++) {
+            assertThrows(IllegalStateException.class, () -> unit.execute("a", () -> {
+                throw new IllegalStateException();
+            }));
+        }
+        assertEquals(0, unit.size());
+        assertEquals(1, unit.queued());
+    }
+
+    @Test
+    void should_not_count_failed_runs_towards_limit(){
+        IdempotencyCache<Integer> unit = new IdempotencyCache<>(2, 1, TimeUnit.SECONDS, clock::get);
+        unit.execute("a", runs::incrementAndGet);
+        for (int i = 0; i < 5; i++) {
+            String key = "failing-" + i;
+            assertThrows(IllegalStateException.class, () -> unit.execute(key, () -> {
+                throw new IllegalStateException();
+            }));
+        }
+        unit.execute("b", runs::incrementAndGet);
+        assertEquals(1, unit.execute("a", runs::incrementAndGet));
+        assertEquals(2, unit.size());
+    }
+
+    @Test
+    void should_keep_running_key_when_full() throws Exception {
+        IdempotencyCache<Integer> unit = new IdempotencyCache<>(1, 1, TimeUnit.HOURS, clock::get);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> first = executor.submit(() -> unit.execute("a", () -> {
+                started.countDown();
+                await(release);
+                return runs.incrementAndGet();
+            }));
+            started.await();
+            unit.execute("b", runs::incrementAndGet);
+            assertEquals(2, unit.size());
+            release.countDown();
+            assertEquals(2, first.get(5, TimeUnit.SECONDS));
+            assertEquals(2, unit.execute("a", runs::incrementAndGet));
+            assertEquals(2, runs.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void should_make_concurrent_retry_wait_for_first_run() throws Exception {
+        IdempotencyCache<Integer> unit = new IdempotencyCache<>(10, 1, TimeUnit.HOURS);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> first = executor.submit(() -> unit.execute("a", () -> {
+                started.countDown();
+                await(release);
+                return runs.incrementAndGet();
+            }));
+            started.await();
+            Future<Integer> retry = executor.submit(() -> unit.execute("a", runs::incrementAndGet));
+            release.countDown();
+            assertEquals(1, first.get(5, TimeUnit.SECONDS));
+            assertEquals(1, retry.get(5, TimeUnit.SECONDS));
+            assertEquals(1, runs.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch){
+        try {
+            latch.await();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.shop.checkout;
+
+import com.shop.dto.StockRequest;
+import com.shop.journal.Journal;
+import com.shop.models.Product;
+import com.shop.store.ProductCatalog;
+import com.shop.store.StockReservations;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class InventoryResourceTest {
+
+    ProductCatalog catalog = new ProductCatalog();
+
+    InventoryResource unit = new InventoryResource(new StockReservations(catalog), Journal.NONE, "secret");
+
+    public InventoryResourceTest() {
+        catalog.add(Product.builder().id(1).name("Apple").price(1.0).quantity(10).build());
+    }
+
+    @Test
+    void should_reserve_and_release_with_cluster_secret(){
+        assertTrue(unit.reserve("secret", new StockRequest(new int[]{1}, new int[]{4})));
+        assertEquals(6, catalog.get(1).getQuantity());
+        unit.release("secret", new StockRequest(new int[]{1}, new int[]{4}));
+        assertEquals(10, catalog.get(1).getQuantity());
+    }
+
+    @Test
+    void should_reject_requests_without_cluster_secret(){
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> unit.release(null, new StockRequest(new int[]{1}, new int[]{4})));
+        assertEquals(HttpStatus.FORBIDDEN, exception.getStatus());
+        exception = assertThrows(ResponseStatusException.class,
+                () -> unit.reserve("guess", new StockRequest(new int[]{1}, new int[]{4})));
+        assertEquals(HttpStatus.FORBIDDEN, exception.getStatus());
+        assertEquals(10, catalog.get(1).getQuantity());
+    }
+
+    @Test
+    void should_reject_non_positive_quantities(){
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> unit.reserve("secret", new StockRequest(new int[]{1}, new int[]{-5})));
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+        exception = assertThrows(ResponseStatusException.class,
+                () -> unit.release("secret", new StockRequest(new int[]{1}, new int[]{0})));
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+        assertEquals(10, catalog.get(1).getQuantity());
+    }
+
+    @Test
+    void should_reject_repeated_product_ids(){
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> unit.reserve("secret", new StockRequest(new int[]{1, 1}, new int[]{10, 10})));
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+        assertEquals(10, catalog.get(1).getQuantity());
+    }
+}
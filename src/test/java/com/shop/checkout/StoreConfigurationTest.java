@@ -0,0 +1,71 @@
+package com.shop.checkout;
+
+import com.shop.journal.Journal;
+import com.shop.pricing.PromotionEngine;
+import com.shop.store.BasketRepository;
+import com.shop.store.ProductCatalog;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class StoreConfigurationTest {
+
+    StoreConfiguration unit = new StoreConfiguration();
+
+    AtomicLong counter = new AtomicLong();
+
+    Path inventory = Files.createTempFile("inventory", ".json");
+
+    public StoreConfigurationTest() throws IOException {
+    }
+
+    @AfterEach
+    void deleteInventory() throws IOException {
+        Files.deleteIfExists(inventory);
+    }
+
+    @Test
+    void should_load_inventory_from_classpath() throws IOException {
+        ProductCatalog products = load("classpath:inventory.json");
+        assertEquals(3, products.size());
+        assertEquals("Laptop", products.get(1).getName());
+        assertEquals(50, products.findByName("Mouse").getQuantity());
+        assertEquals(3, counter.get());
+    }
+
+    @Test
+    void should_load_inventory_from_file_assigning_new_ids() throws IOException {
+        Files.write(inventory, ("[{\"id\": 42, \"name\": \"Apple\", \"price\": 1.5, \"quantity\": 10},"
+                + " {\"name\": \"Pear\", \"price\": 2.0, \"quantity\": 5}]").getBytes(StandardCharsets.UTF_8));
+        ProductCatalog products = load("file:" + inventory.toAbsolutePath());
+        assertEquals(2, products.size());
+        assertEquals("Apple", products.get(1).getName());
+        assertEquals(150, products.get(1).getPriceInMinorUnits());
+        assertEquals("Pear", products.get(2).getName());
+        assertNull(products.get(42));
+    }
+
+    @Test
+    void should_skip_duplicate_names_when_loading_inventory() throws IOException {
+        Files.write(inventory, ("[{\"name\": \"Apple\", \"price\": 1.5}, {\"name\": \"APPLE\", \"price\": 9.0},"
+                + " {\"name\": \"Pear\", \"price\": 2.0}]").getBytes(StandardCharsets.UTF_8));
+        ProductCatalog products = load("file:" + inventory.toAbsolutePath());
+        assertEquals(2, products.size());
+        assertEquals(150, products.findByName("apple").getPriceInMinorUnits());
+        assertEquals("Pear", products.findByName("pear").getName());
+    }
+
+    private ProductCatalog load(String location) throws IOException {
+        return unit.products(counter, Journal.NONE, new BasketRepository(), new PromotionEngine(),
+                new DefaultResourceLoader().getResource(location), 4);
+    }
+}
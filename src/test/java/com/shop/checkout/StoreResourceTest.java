@@ -1,5 +1,7 @@
 package com.shop.checkout;
 
+import com.shop.dto.ImportReport;
+import com.shop.dto.Page;
 import com.shop.models.Product;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -10,9 +12,15 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 @ExtendWith(SpringExtension.class)
@@ -39,6 +47,33 @@ public class StoreResourceTest {
         assertEquals(5, products.get(1).getQuantity());
     }
 
+    @Test
+    void should_page_through_products(){
+        Page<Product> first = unit.getProductPage(0, 1);
+        assertEquals(1, first.getItems().size());
+        assertEquals("Apple", first.getItems().get(0).getName());
+        assertEquals(1, first.getNextCursor());
+
+        Page<Product> last = unit.getProductPage(first.getNextCursor(), 1);
+        assertEquals("Car", last.getItems().get(0).getName());
+        assertEquals(2, last.getNextCursor());
+        assertEquals(0, unit.getProductPage(last.getNextCursor(), 1).getItems().size());
+        assertNull(unit.getProductPage(0, 5000).getNextCursor());
+    }
+
+    @Test
+    void should_reject_non_positive_page_limit(){
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> unit.getProductPage(0, 0));
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+    }
+
+    @Test
+    void should_stream_products_as_ndjson() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        unit.streamProducts().writeTo(out);
+        assertEquals(2, out.toString("UTF-8").split("\n").length);
+    }
+
     @Test
     void should_get_product(){
         Product product = unit.getProduct(2);
@@ -67,6 +102,63 @@ public class StoreResourceTest {
         assertEquals(product.getQuantity(), newProduct.getQuantity());
     }
 
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    void should_import_products_from_json_array(){
+        String json = "[{\"name\": \"Pear\", \"price\": 3.2, \"description\": \"Juicy pear\", \"quantity\": 40},"
+                + " {\"name\": \"car\", \"price\": 1.0, \"description\": \"Duplicate\", \"quantity\": 1},"
+                + " {\"id\": 99, \"name\": \"Bike\", \"price\": 250, \"description\": \"Mountain bike\", \"quantity\": 3}]";
+        ImportReport report = importProducts(json, 1);
+        assertEquals(2, report.getImported());
+        assertEquals(1, report.getRejected());
+        assertEquals(4, unit.getProducts().size());
+        assertEquals("Pear", unit.getProduct(3).getName());
+        assertEquals(3.2, unit.getProduct(3).getPrice());
+        assertEquals(40, unit.getProduct(3).getQuantity());
+        assertEquals("Bike", unit.getProduct(4).getName());
+    }
+
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    void should_import_products_from_ndjson(){
+        String ndjson = "{\"name\": \"Pear\", \"price\": 3.2, \"description\": \"Juicy pear\", \"quantity\": 40}\n"
+                + "{\"name\": \"pear\", \"price\": 3.2, \"description\": \"Same pear\", \"quantity\": 40}\n"
+                + "{\"name\": \"Bike\", \"price\": 250, \"description\": \"Mountain bike\", \"quantity\": 3}\n";
+        ImportReport report = importProducts(ndjson, 10);
+        assertEquals(2, report.getImported());
+        assertEquals(1, report.getRejected());
+        assertEquals("Juicy pear", unit.getProduct(3).getDescription());
+        assertEquals(4, unit.getProducts().size());
+    }
+
+    @Test
+    @DirtiesContext(methodMode = DirtiesContext.MethodMode.AFTER_METHOD)
+    void should_fail_import_on_malformed_product(){
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, ()-> {
+            importProducts("[{\"name\": \"Pear\", \"price\": 3.2}, {\"name\": ", 1);
+        });
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+        assertEquals("Pear", unit.getProduct(3).getName());
+    }
+
+    @Test
+    void should_reject_non_positive_import_batch_size(){
+        int products = unit.getProducts().size();
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, ()-> {
+            importProducts("[{\"name\": \"Pear\", \"price\": 3.2}]", 0);
+        });
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+        assertEquals(products, unit.getProducts().size());
+    }
+
+    private ImportReport importProducts(String content, int batchSize){
+        try {
+            return unit.importProducts(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), batchSize);
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
     @Test
     void should_not_create_product_if_duplicate_exists(){
         Product product = Product.builder()
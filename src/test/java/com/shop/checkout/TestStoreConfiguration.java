@@ -1,16 +1,24 @@
 package com.shop.checkout;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shop.dto.CheckoutResponse;
+import com.shop.journal.Journal;
 import com.shop.models.Basket;
-import com.shop.models.BundleDeal;
-import com.shop.models.DiscountDeal;
 import com.shop.models.Product;
+import com.shop.pricing.PriceQuoteCache;
+import com.shop.pricing.PromotionEngine;
+import com.shop.store.BasketRepository;
+import com.shop.store.ProductCatalog;
+import com.shop.store.ReservationReaper;
+import com.shop.store.StockReservations;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 @Configuration
@@ -22,11 +30,16 @@ public class TestStoreConfiguration {
     }
 
     @Bean
-    public List<Product> products(AtomicLong counter){
-        List<Product> products = new ArrayList<>();
+    public Journal journal(){
+        return Journal.NONE;
+    }
+
+    @Bean
+    public ProductCatalog products(AtomicLong counter){
+        ProductCatalog products = new ProductCatalog();
         products.add(
                 Product.builder()
-                        .id(new Long(counter.incrementAndGet()).intValue())
+                        .id(Math.toIntExact(counter.incrementAndGet()))
                         .name("Apple")
                         .price(5.67)
                         .description("Tasty apple")
@@ -35,7 +48,7 @@ public class TestStoreConfiguration {
         );
         products.add(
                 Product.builder()
-                        .id(new Long(counter.incrementAndGet()).intValue())
+                        .id(Math.toIntExact(counter.incrementAndGet()))
                         .name("Car")
                         .price(380000.00)
                         .description("Fancy car")
@@ -45,21 +58,56 @@ public class TestStoreConfiguration {
         return products;
     }
 
+    // Fails stock calls made while holding a basket monitor, as on a cluster they may go over HTTP
+    @Bean
+    public StockReservations stockReservations(ProductCatalog products, BasketRepository baskets){
+        return new StockReservations(products) {
+            @Override
+            public boolean reserve(int productId, int quantity) {
+                checkNoBasketMonitorHeld(baskets);
+                return super.reserve(productId, quantity);
+            }
+
+            @Override
+            public boolean reserveAll(int[] productIds, int[] quantities) {
+                checkNoBasketMonitorHeld(baskets);
+                return super.reserveAll(productIds, quantities);
+            }
+
+            @Override
+            public void release(int productId, int quantity) {
+                checkNoBasketMonitorHeld(baskets);
+                super.release(productId, quantity);
+            }
+        };
+    }
+
+    private static void checkNoBasketMonitorHeld(BasketRepository baskets){
+        for (Basket basket : baskets.values()){
+            if (Thread.holdsLock(basket)){
+                throw new IllegalStateException("Stock called while holding the monitor of basket " + basket.getUserId());
+            }
+        }
+    }
+
+    @Bean
+    public PromotionEngine promotionEngine(){
+        return new PromotionEngine();
+    }
+
     @Bean
-    public List<DiscountDeal> discountDeals(){
-        return new ArrayList<>();
+    public PriceQuoteCache priceQuoteCache(){
+        return new PriceQuoteCache();
     }
 
     @Bean
-    public List<BundleDeal> bundleDeals(){
-        return new ArrayList<>();
+    public IdempotencyCache<CheckoutResponse> checkoutResponses(){
+        return new IdempotencyCache<>(100, 1, TimeUnit.HOURS);
     }
 
     @Bean
-    public BasketResource basketResource(List<Product> products,
-                                         List<DiscountDeal> discountDeals,
-                                         List<BundleDeal> bundleDeals){
-        List<Basket> baskets = new ArrayList<>();
+    public BasketRepository baskets(){
+        BasketRepository baskets = new BasketRepository();
         Map<Integer, Integer> basketItems1 = new HashMap<>();
         Map<Integer, Integer> basketItems2 = new HashMap<>();
         basketItems1.put(1, 10);
@@ -77,15 +125,47 @@ public class TestStoreConfiguration {
                     .items(basketItems2)
                     .build()
         );
-        return new BasketResource(baskets, products, discountDeals, bundleDeals);
+        return baskets;
+    }
+
+    @Bean
+    public ObjectMapper objectMapper(){
+        return new ObjectMapper();
+    }
+
+    @Bean
+    public MeterRegistry meterRegistry(){
+        return new SimpleMeterRegistry();
+    }
+
+    @Bean
+    public StoreMetrics storeMetrics(MeterRegistry meterRegistry, BasketRepository baskets){
+        return new StoreMetrics(meterRegistry, baskets);
+    }
+
+    @Bean
+    public BasketResource basketResource(BasketRepository baskets,
+                                         ProductCatalog products,
+                                         StockReservations stockReservations,
+                                         PromotionEngine promotionEngine,
+                                         PriceQuoteCache priceQuoteCache,
+                                         Journal journal,
+                                         IdempotencyCache<CheckoutResponse> checkoutResponses,
+                                         StoreMetrics storeMetrics,
+                                         ObjectMapper objectMapper){
+        return new BasketResource(baskets, products, stockReservations, promotionEngine, priceQuoteCache, journal, checkoutResponses,
+                ReservationReaper.disabled(), storeMetrics, objectMapper);
     }
 
     @Bean
-    public StoreResource storeResource(List<Product> products,
-                                       List<DiscountDeal> discountDeals,
-                                       List<BundleDeal> bundleDeals,
-                                       AtomicLong counter){
-        return new StoreResource(products, discountDeals, bundleDeals, counter);
+    public StoreResource storeResource(ProductCatalog products,
+                                       StockReservations stockReservations,
+                                       PromotionEngine promotionEngine,
+                                       PriceQuoteCache priceQuoteCache,
+                                       AtomicLong counter,
+                                       Journal journal,
+                                       ObjectMapper objectMapper){
+        return new StoreResource(products, stockReservations, promotionEngine, priceQuoteCache, counter, journal, objectMapper);
     }
 
 }
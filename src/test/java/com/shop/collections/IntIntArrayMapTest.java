@@ -0,0 +1,82 @@
+package com.shop.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IntIntArrayMapTest {
+
+    IntIntArrayMap unit = new IntIntArrayMap();
+
+    @Test
+    void should_behave_like_hash_map_under_random_changes(){
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++){
+            int key = random.nextInt(200) - 100;
+            int value = random.nextInt(10);
+            switch (random.nextInt(4)){
+                case 0:
+                    assertEquals(expected.put(key, value), unit.put(key, value));
+                    break;
+                case 1:
+                    assertEquals(expected.merge(key, value, Integer::sum), unit.merge(key, value, Integer::sum));
+                    break;
+                case 2:
+                    assertEquals(expected.remove(key), unit.remove(key));
+                    break;
+                default:
+                    assertEquals(expected.get(key), unit.get(key));
+                    assertEquals(expected.getOrDefault(key, -1), unit.getOrDefault(key, -1));
+            }
+            assertEquals(expected.size(), unit.size());
+        }
+        assertEquals(expected, unit);
+        assertEquals(unit, expected);
+        assertEquals(expected.hashCode(), unit.hashCode());
+    }
+
+    @Test
+    void should_iterate_in_key_order(){
+        unit.put(30, 3);
+        unit.put(10, 1);
+        unit.put(20, 2);
+        List<Integer> keys = new ArrayList<>(unit.keySet());
+        assertEquals(10, keys.get(0));
+        assertEquals(20, keys.get(1));
+        assertEquals(30, keys.get(2));
+        assertEquals("{10=1, 20=2, 30=3}", unit.toString());
+    }
+
+    @Test
+    void should_remove_through_iterator_and_remove_lines_merged_to_null(){
+        for (int key = 1; key <= 5; key++){
+            unit.put(key, key);
+        }
+        Iterator<Map.Entry<Integer, Integer>> entries = unit.entrySet().iterator();
+        while (entries.hasNext()){
+            if (entries.next().getKey() % 2 == 0){
+                entries.remove();
+            }
+        }
+        assertEquals(3, unit.size());
+        assertNull(unit.merge(3, 0, (a, b) -> null));
+        assertFalse(unit.containsKey(3));
+        assertTrue(unit.containsKey(5));
+        assertEquals(0, unit.get(4, 0));
+        unit.clear();
+        assertTrue(unit.isEmpty());
+        unit.put(7, 1);
+        assertEquals(1, unit.get(7, 0));
+    }
+}
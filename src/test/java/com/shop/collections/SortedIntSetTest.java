@@ -0,0 +1,42 @@
+package com.shop.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SortedIntSetTest {
+
+    SortedIntSet unit = new SortedIntSet();
+
+    @Test
+    void should_behave_like_tree_set_under_random_changes(){
+        TreeSet<Integer> expected = new TreeSet<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++){
+            int value = random.nextInt(200) - 100;
+            if (random.nextBoolean()){
+                assertEquals(expected.add(value), unit.add(value));
+            } else {
+                assertEquals(expected.remove(value), unit.remove(value));
+            }
+            assertEquals(expected.size(), unit.size());
+            assertEquals(expected.contains(value), unit.contains(value));
+        }
+        int[] all = unit.valuesAfter(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), all);
+    }
+
+    @Test
+    void should_return_values_after_cursor(){
+        for (int value = 10; value <= 50; value += 10){
+            unit.add(value);
+        }
+        assertArrayEquals(new int[]{20, 30}, unit.valuesAfter(10, 2));
+        assertArrayEquals(new int[]{30, 40, 50}, unit.valuesAfter(25, 10));
+        assertArrayEquals(new int[0], unit.valuesAfter(50, 10));
+    }
+}
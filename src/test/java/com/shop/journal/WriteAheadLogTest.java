@@ -0,0 +1,300 @@
+package com.shop.journal;
+
+import com.shop.models.Basket;
+import com.shop.models.BundleDeal;
+import com.shop.models.DiscountDeal;
+import com.shop.models.Product;
+import com.shop.pricing.PromotionEngine;
+import com.shop.store.BasketRepository;
+import com.shop.store.ProductCatalog;
+import com.shop.store.ProductImporter;
+import com.shop.store.StockReservations;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WriteAheadLogTest {
+
+    Path directory = Files.createTempDirectory("journal");
+
+    public WriteAheadLogTest() throws IOException {
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)){
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    void should_replay_changes_after_reopening() throws IOException {
+        try (WriteAheadLog journal = WriteAheadLog.open(directory)){
+            assertTrue(journal.isEmpty());
+            journal.productChanged(Product.builder()
+                    .id(1)
+                    .name("\u00c4pple")
+                    .price(5.67)
+                    .quantity(10)
+                    .build());
+            journal.stockChanged(1, 99);
+            journal.basketLineChanged(1001, 1, 1);
+            journal.discountDealAdded(1, 0.5);
+            journal.bundleDealAdded(1, 2);
+            journal.basketCleared(1001);
+            journal.productRemoved(1);
+            journal.sync();
+            assertEquals(journal.getWrittenLsn(), journal.getDurableLsn());
+        }
+        try (WriteAheadLog journal = WriteAheadLog.open(directory)){
+            assertFalse(journal.isEmpty());
+            assertEquals(Arrays.asList(
+                    "product 1 \u00c4pple 567 null 10",
+                    "stock 1 99",
+                    "line 1001 1 1",
+                    "discount 1 0.5",
+                    "bundle 1 2",
+                    "clear 1001",
+                    "remove 1"), recover(journal));
+        }
+    }
+
+    @Test
+    void should_stop_replay_at_torn_record_and_append_after_the_last_intact_one() throws IOException {
+        long tornAt;
+        try (WriteAheadLog journal = WriteAheadLog.open(directory)){
+            journal.stockChanged(1, 99);
+            tornAt = journal.getWrittenLsn();
+            journal.stockChanged(1, 98);
+        }
+        Path segment = WriteAheadLog.segmentFiles(directory).get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)){
+            // Corrupt the last byte of the second record's payload
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xFF}), tornAt + 16);
+        }
+        try (WriteAheadLog journal = WriteAheadLog.open(directory)){
+            assertEquals(Arrays.asList("stock 1 99"), recover(journal));
+            journal.stockChanged(1, 97);
+        }
+        try (WriteAheadLog journal = WriteAheadLog.open(directory)){
+            assertEquals(Arrays.asList("stock 1 99", "stock 1 97"), recover(journal));
+        }
+    }
+
+    @Test
+    void should_roll_over_to_new_segments() throws IOException {
+        try (WriteAheadLog journal = WriteAheadLog.open(directory, 64)){
+            for (int quantity = 0; quantity < 10; quantity++){
+                journal.stockChanged(1, quantity);
+            }
+        }
+        assertEquals(4, WriteAheadLog.segmentFiles(directory).size());
+        try (WriteAheadLog journal = WriteAheadLog.open(directory, 64)){
+            List<String> changes = recover(journal);
+            assertEquals(10, changes.size());
+            assertEquals("stock 1 9", changes.get(9));
+        }
+    }
+
+    @Test
+    void should_make_concurrent_changes_durable() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (WriteAheadLog journal = WriteAheadLog.open(directory)){
+            List<Future<?>> futures = new ArrayList<>();
+            for (int user = 0; user < 8; user++){
+                int userId = user;
+                futures.add(executor.submit(() -> {
+                    for (int quantity = 1; quantity <= 100; quantity++){
+                        journal.basketLineChanged(userId, 1, quantity);
+                        journal.sync();
+                    }
+                }));
+            }
+            for (Future<?> future : futures){
+                future.get();
+            }
+            assertEquals(journal.getWrittenLsn(), journal.getDurableLsn());
+        } finally {
+            executor.shutdown();
+        }
+        try (WriteAheadLog journal = WriteAheadLog.open(directory)){
+            assertEquals(800, recover(journal).size());
+        }
+    }
+
+    @Test
+    void should_restore_store_state() throws IOException {
+        try (WriteAheadLog journal = WriteAheadLog.open(directory)){
+            ProductCatalog catalog = new ProductCatalog(16, journal);
+            StockReservations stock = new StockReservations(catalog, journal);
+            PromotionEngine promotions = new PromotionEngine(journal);
+            catalog.add(product(1, "Apple"));
+            catalog.add(product(2, "Pear"));
+            catalog.remove(2);
+            stock.reserve(1, 3);
+            journal.basketLineChanged(1001, 1, 3);
+            promotions.addDiscountDeal(DiscountDeal.builder()
+                    .product(catalog.get(1))
+                    .discount(0.5)
+                    .build());
+        }
+        try (WriteAheadLog journal = WriteAheadLog.open(directory)){
+            ProductCatalog catalog = new ProductCatalog(16, journal);
+            BasketRepository baskets = new BasketRepository();
+            PromotionEngine promotions = new PromotionEngine(journal);
+            AtomicLong counter = new AtomicLong();
+            long lsn = journal.getWrittenLsn();
+            journal.recover(new JournalReplay(catalog, baskets, promotions, counter));
+
+            assertEquals(lsn, journal.getWrittenLsn());
+            assertEquals(1, catalog.size());
+            assertEquals(7, catalog.get(1).getQuantity());
+            assertEquals(567, catalog.get(1).getPriceInMinorUnits());
+            Basket basket = baskets.get(1001);
+            assertEquals(3, basket.getItems().get(1));
+            assertEquals(1, promotions.discountDealsFor(1).size());
+            assertEquals(2, counter.get());
+        }
+    }
+
+    @Test
+    void should_recover_from_checkpoint_and_later_changes() throws IOException {
+        try (WriteAheadLog journal = WriteAheadLog.open(directory, 128)){
+            ProductCatalog catalog = new ProductCatalog(16, journal);
+            StockReservations stock = new StockReservations(catalog, journal);
+            BasketRepository baskets = new BasketRepository();
+            PromotionEngine promotions = new PromotionEngine(journal);
+            catalog.add(product(1, "Apple"));
+            catalog.add(product(2, "Pear"));
+            catalog.remove(2);
+            stock.reserve(1, 3);
+            baskets.getOrCreate(1001).getItems().put(1, 3);
+            journal.basketLineChanged(1001, 1, 3);
+            baskets.getOrCreate(1002);
+            promotions.addDiscountDeal(DiscountDeal.builder()
+                    .product(catalog.get(1))
+                    .discount(0.5)
+                    .build());
+            journal.checkpoint(new StoreSnapshot(catalog, stock, baskets, promotions, new AtomicLong(2)));
+
+            assertEquals(1, WriteAheadLog.snapshotFiles(directory).size());
+            assertEquals(1, WriteAheadLog.segmentFiles(directory).size());
+            stock.reserve(1, 2);
+            journal.basketLineChanged(1001, 1, 5);
+            promotions.addBundleDeal(BundleDeal.builder()
+                    .product(catalog.get(1))
+                    .gift(catalog.get(1))
+                    .build());
+        }
+        try (WriteAheadLog journal = WriteAheadLog.open(directory, 128)){
+            ProductCatalog catalog = new ProductCatalog(16, journal);
+            BasketRepository baskets = new BasketRepository();
+            PromotionEngine promotions = new PromotionEngine(journal);
+            AtomicLong counter = new AtomicLong();
+            journal.recover(new JournalReplay(catalog, baskets, promotions, counter));
+
+            assertEquals(1, catalog.size());
+            assertEquals(5, catalog.get(1).getQuantity());
+            assertEquals(5, baskets.get(1001).getItems().get(1));
+            assertEquals(0, baskets.get(1002).getItems().size());
+            assertEquals(1, promotions.getDiscountDeals().size());
+            assertEquals(1, promotions.getBundleDeals().size());
+            assertEquals(2, counter.get());
+        }
+    }
+
+    @Test
+    void should_not_reissue_ids_of_rejected_imports() throws IOException {
+        try (WriteAheadLog journal = WriteAheadLog.open(directory)){
+            ProductCatalog catalog = new ProductCatalog(16, journal);
+            AtomicLong counter = new AtomicLong();
+            new ProductImporter(catalog, counter, journal).importFrom(new StringReader(
+                    "[{\"name\": \"Apple\", \"price\": 1.0}, {\"name\": \"apple\", \"price\": 2.0}]"), 10);
+            assertEquals(1, catalog.size());
+            assertEquals(2, counter.get());
+        }
+        try (WriteAheadLog journal = WriteAheadLog.open(directory)){
+            AtomicLong counter = new AtomicLong();
+            journal.recover(new JournalReplay(new ProductCatalog(16, journal), new BasketRepository(),
+                    new PromotionEngine(journal), counter));
+            assertEquals(2, counter.get());
+        }
+    }
+
+    private List<String> recover(Journal journal){
+        List<String> changes = new ArrayList<>();
+        journal.recover(new StoreChanges() {
+            @Override
+            public void productChanged(Product product) {
+                changes.add("product " + product.getId() + " " + product.getName() + " " + product.getPriceInMinorUnits()
+                        + " " + product.getDescription() + " " + product.getQuantity());
+            }
+
+            @Override
+            public void productRemoved(int productId) {
+                changes.add("remove " + productId);
+            }
+
+            @Override
+            public void stockChanged(int productId, int quantity) {
+                changes.add("stock " + productId + " " + quantity);
+            }
+
+            @Override
+            public void basketLineChanged(int userId, int productId, int quantity) {
+                changes.add("line " + userId + " " + productId + " " + quantity);
+            }
+
+            @Override
+            public void basketCleared(int userId) {
+                changes.add("clear " + userId);
+            }
+
+            @Override
+            public void discountDealAdded(int productId, double discount) {
+                changes.add("discount " + productId + " " + discount);
+            }
+
+            @Override
+            public void bundleDealAdded(int productId, int giftId) {
+                changes.add("bundle " + productId + " " + giftId);
+            }
+
+            @Override
+            public void productIdsIssued(long lastId) {
+                changes.add("ids " + lastId);
+            }
+        });
+        return changes;
+    }
+
+    private Product product(int id, String name){
+        return Product.builder()
+                .id(id)
+                .name(name)
+                .price(5.67)
+                .description(name)
+                .quantity(10)
+                .build();
+    }
+}
@@ -0,0 +1,28 @@
+package com.shop.pricing;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MoneyTest {
+
+    @Test
+    void should_convert_decimal_amounts_to_minor_units(){
+        assertEquals(12850, Money.toMinorUnits(128.5));
+        assertEquals(567, Money.toMinorUnits(5.67));
+        assertEquals(34567, Money.toMinorUnits(345.67));
+        assertEquals(29, Money.toMinorUnits(0.285));
+        assertEquals(5.67, Money.toDouble(567));
+        assertEquals(new BigDecimal("380028.35"), Money.toBigDecimal(38002835));
+    }
+
+    @Test
+    void should_apply_rate_rounding_half_up(){
+        assertEquals(284, Money.applyRate(567, 0.5));
+        assertEquals(185, Money.applyRate(1230, 0.15));
+        assertEquals(0, Money.applyRate(567, 0));
+        assertEquals(567, Money.applyRate(567, 1));
+    }
+}
@@ -0,0 +1,113 @@
+package com.shop.pricing;
+
+import com.shop.collections.IntIntArrayMap;
+import com.shop.models.Basket;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PriceQuoteCacheTest {
+
+    private static final int THREADS = 4;
+
+    PriceQuoteCache unit = new PriceQuoteCache();
+
+    AtomicLong applePrice = new AtomicLong(100);
+
+    // Apples change price, pears always cost 10 each
+    PriceQuoteCache.LinePricer pricer = (basket, productId) ->
+            (long) basket.getItems().getOrDefault(productId, 0) * (productId == 1 ? applePrice.get() : 10);
+
+    @Test
+    void should_reprice_changed_line_on_top_of_quote(){
+        Basket basket = basket(1);
+        assertEquals(110, unit.quote(basket, pricer));
+        basket.getItems().put(2, 3);
+        unit.lineChanged(basket, 2, pricer);
+        assertEquals(130, unit.quote(basket, pricer));
+        assertEquals(1, unit.getHits());
+    }
+
+    @Test
+    void should_not_keep_quote_of_invalidated_product_changed_concurrently() throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        // Apple price whose invalidation has finished, so no quote may hold an older one
+        AtomicLong invalidatedPrice = new AtomicLong(applePrice.get());
+        AtomicInteger staleQuotes = new AtomicInteger();
+        // Slow to price pears, so invalidations remove quotes while a pear line is repriced
+        PriceQuoteCache.LinePricer slowPricer = (basket, productId) -> {
+            if (productId == 2) {
+                LockSupport.parkNanos(20_000);
+            }
+            return pricer.price(basket, productId);
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        List<Basket> baskets = new ArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+        // Quotes without apples, scanned by each invalidation before those of the baskets below
+        for (int userId = 0; userId < 100_000; userId++) {
+            IntIntArrayMap items = new IntIntArrayMap();
+            items.put(2, 1);
+            unit.quote(new Basket(userId, items), pricer);
+        }
+        try {
+            for (int i = 0; i < THREADS; i++) {
+                Basket basket = basket(200_000 + i);
+                baskets.add(basket);
+                futures.add(executor.submit(() -> {
+                    while (running.get()) {
+                        synchronized (basket) {
+                            long floor = invalidatedPrice.get();
+                            if (unit.quote(basket, slowPricer) - 10L * basket.getItems().get(2) < floor) {
+                                staleQuotes.incrementAndGet();
+                            }
+                            basket.getItems().merge(2, 1, Integer::sum);
+                            unit.lineChanged(basket, 2, slowPricer);
+                        }
+                    }
+                }));
+            }
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 400; i++) {
+                    long price = applePrice.incrementAndGet();
+                    unit.invalidateProduct(1);
+                    invalidatedPrice.set(price);
+                    // Gives the baskets time to read a quote that should have been dropped
+                    LockSupport.parkNanos(100_000);
+                }
+                running.set(false);
+            }));
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            running.set(false);
+            executor.shutdownNow();
+        }
+        assertEquals(0, staleQuotes.get());
+        for (Basket basket : baskets) {
+            synchronized (basket) {
+                long expected = applePrice.get() + 10L * basket.getItems().get(2);
+                assertEquals(expected, unit.quote(basket, pricer));
+            }
+        }
+    }
+
+    private Basket basket(int userId){
+        IntIntArrayMap items = new IntIntArrayMap();
+        items.put(1, 1);
+        items.put(2, 1);
+        return new Basket(userId, items);
+    }
+}
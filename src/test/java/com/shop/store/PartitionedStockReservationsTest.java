@@ -0,0 +1,116 @@
+package com.shop.store;
+
+import com.shop.journal.Journal;
+import com.shop.models.Product;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PartitionedStockReservationsTest {
+
+    // Three nodes, each with its own copy of products 1 to 6, wired to each other in process
+    List<ProductCatalog> catalogs = new ArrayList<>();
+
+    List<PartitionedStockReservations> nodes = new ArrayList<>();
+
+    boolean unreachable;
+
+    public PartitionedStockReservationsTest() {
+        RemoteInventory remote = new RemoteInventory() {
+            @Override
+            public boolean reserveAll(int node, int[] productIds, int[] quantities) {
+                if (unreachable) {
+                    throw new IllegalStateException("Node " + node + " unreachable");
+                }
+                return nodes.get(node).reserveAll(productIds, quantities);
+            }
+
+            @Override
+            public void releaseAll(int node, int[] productIds, int[] quantities) {
+                for (int i = 0; i < productIds.length; i++) {
+                    nodes.get(node).release(productIds[i], quantities[i]);
+                }
+            }
+        };
+        for (int node = 0; node < 3; node++) {
+            ProductCatalog catalog = new ProductCatalog();
+            for (int id = 1; id <= 6; id++) {
+                catalog.add(Product.builder().id(id).name("Product " + id).price(1.0).quantity(10).build());
+            }
+            catalogs.add(catalog);
+            nodes.add(new PartitionedStockReservations(catalog, Journal.NONE, node, 3, remote));
+        }
+    }
+
+    @Test
+    void should_count_stock_only_on_owner(){
+        assertTrue(nodes.get(0).owns(3));
+        assertFalse(nodes.get(0).owns(4));
+
+        assertTrue(nodes.get(0).reserve(4, 3));
+        assertEquals(7, catalogs.get(1).get(4).getQuantity());
+        assertEquals(10, catalogs.get(0).get(4).getQuantity());
+
+        nodes.get(2).release(4, 3);
+        assertEquals(10, catalogs.get(1).get(4).getQuantity());
+    }
+
+    @Test
+    void should_reserve_across_nodes_all_or_nothing(){
+        assertTrue(nodes.get(0).reserveAll(new int[]{3, 4, 5}, new int[]{1, 2, 3}));
+        assertEquals(9, catalogs.get(0).get(3).getQuantity());
+        assertEquals(8, catalogs.get(1).get(4).getQuantity());
+        assertEquals(7, catalogs.get(2).get(5).getQuantity());
+
+        assertFalse(nodes.get(0).reserveAll(new int[]{3, 4, 5}, new int[]{1, 1, 8}));
+        assertEquals(9, catalogs.get(0).get(3).getQuantity());
+        assertEquals(8, catalogs.get(1).get(4).getQuantity());
+        assertEquals(7, catalogs.get(2).get(5).getQuantity());
+    }
+
+    @Test
+    void should_undo_local_reservation_if_remote_node_unreachable(){
+        unreachable = true;
+        assertThrows(IllegalStateException.class, () -> nodes.get(0).reserveAll(new int[]{3, 4}, new int[]{1, 1}));
+        assertEquals(10, catalogs.get(0).get(3).getQuantity());
+    }
+
+    @Test
+    void should_not_oversell_when_every_node_sells_the_same_product() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<Integer>> sold = new ArrayList<>();
+            for (int thread = 0; thread < 6; thread++) {
+                PartitionedStockReservations node = nodes.get(thread % 3);
+                sold.add(executor.submit(() -> {
+                    int units = 0;
+                    for (int i = 0; i < 100; i++) {
+                        if (node.reserveAll(new int[]{1, 2}, new int[]{1, 1})) {
+                            units++;
+                        }
+                    }
+                    return units;
+                }));
+            }
+            int total = 0;
+            for (Future<Integer> units : sold) {
+                total += units.get(10, TimeUnit.SECONDS);
+            }
+            assertEquals(10, total);
+            assertEquals(0, catalogs.get(1).get(1).getQuantity());
+            assertEquals(0, catalogs.get(2).get(2).getQuantity());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.shop.store;
+
+import com.shop.models.Product;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ProductCatalogTest {
+
+    ProductCatalog unit = new ProductCatalog();
+
+    @Test
+    void should_find_product_by_id_and_name(){
+        Product apple = product(1, "Apple");
+        assertTrue(unit.add(apple));
+        assertEquals("Apple", unit.get(1).getName());
+        assertSame(unit.get(1), unit.findByName("APPLE"));
+        assertNull(unit.get(2));
+        assertNull(unit.findByName("Pear"));
+    }
+
+    @Test
+    void should_not_add_product_with_duplicate_name(){
+        unit.add(product(1, "Apple"));
+        assertFalse(unit.add(product(2, "apple")));
+        assertEquals(1, unit.size());
+    }
+
+    @Test
+    void should_reindex_name_on_replace(){
+        unit.add(product(1, "Apple"));
+        Product pear = product(1, "Pear");
+        unit.replace(pear);
+        assertNull(unit.findByName("Apple"));
+        assertSame(unit.get(1), unit.findByName("pear"));
+        assertNull(unit.replace(product(2, "Plum")));
+    }
+
+    @Test
+    void should_add_or_replace_on_put(){
+        unit.put(product(1, "Apple"));
+        Product pear = product(1, "Pear");
+        unit.put(pear);
+        assertEquals(1, unit.size());
+        assertEquals("Pear", unit.get(1).getName());
+        assertNull(unit.findByName("Apple"));
+    }
+
+    @Test
+    void should_keep_stock_off_the_heap_products(){
+        Product apple = product(1, "Apple");
+        apple.setQuantity(70_000);
+        unit.add(apple);
+        unit.setQuantity(1, 69_999);
+        assertEquals(69_999, unit.get(1).getQuantity());
+        assertEquals(70_000, apple.getQuantity());
+        unit.get(1).setQuantity(5);
+        assertEquals(5, unit.quantityOf(1));
+        assertTrue(unit.getOffHeapBytes() > 0);
+
+        unit.add(product(200_000, "Pear"));
+        assertEquals(1, unit.quantityOf(200_000));
+        unit.remove(1);
+        assertEquals(0, unit.quantityOf(1));
+        assertEquals(0, unit.quantityOf(-1));
+    }
+
+    @Test
+    void should_keep_lookups_after_many_removals(){
+        for (int id = 1; id <= 10000; id++){
+            unit.add(product(id, "Product " + id));
+        }
+        for (int id = 1; id <= 10000; id += 2){
+            unit.remove(id);
+        }
+        assertEquals(5000, unit.size());
+        for (int id = 1; id <= 10000; id++){
+            assertEquals(id % 2 == 0, unit.get(id) != null);
+            assertEquals(id % 2 == 0, unit.findByName("product " + id) != null);
+        }
+        List<Product> products = unit.values();
+        assertEquals(2, products.get(0).getId());
+        assertEquals(10000, products.get(4999).getId());
+    }
+
+    @Test
+    void should_page_by_id_skipping_removed_products(){
+        for (int id = 1; id <= 10; id++){
+            unit.add(product(id, "Product " + id));
+        }
+        unit.remove(3);
+        unit.remove(4);
+        List<Product> page = unit.page(2, 3);
+        assertEquals(3, page.size());
+        assertEquals(5, page.get(0).getId());
+        assertEquals(7, page.get(2).getId());
+        assertEquals(0, unit.page(10, 3).size());
+    }
+
+    @Test
+    void should_page_over_sparse_ids(){
+        unit.add(product(1, "First"));
+        unit.add(product(7, "Middle"));
+        unit.add(product(Integer.MAX_VALUE, "Last"));
+        List<Product> page = unit.page(Integer.MIN_VALUE, 2);
+        assertEquals(1, page.get(0).getId());
+        assertEquals(7, page.get(1).getId());
+        page = unit.page(7, 2);
+        assertEquals(1, page.size());
+        assertEquals(Integer.MAX_VALUE, page.get(0).getId());
+    }
+
+    private Product product(int id, String name){
+        return Product.builder()
+                .id(id)
+                .name(name)
+                .price(1.0)
+                .description(name)
+                .quantity(1)
+                .build();
+    }
+
+    @Test
+    void should_add_each_name_once_under_contention() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> added = new ArrayList<>();
+            for (int i = 1; i <= 8; i++){
+                int id = i;
+                added.add(executor.submit(() -> unit.add(product(id, "Apple"))));
+            }
+            int wins = 0;
+            for (Future<Boolean> result : added){
+                wins += result.get(5, TimeUnit.SECONDS) ? 1 : 0;
+            }
+            assertEquals(1, wins);
+            assertEquals(1, unit.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void should_find_every_product_while_others_are_added() throws Exception {
+        for (int id = 1; id <= 1000; id++){
+            unit.add(product(id, "Product " + id));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // Adding grows the shards, so readers race table resizes
+            Future<?> writer = executor.submit(() -> {
+                for (int id = 1001; id <= 100_000; id++){
+                    unit.add(product(id, "Product " + id));
+                }
+            });
+            Future<Integer> misses = executor.submit(() -> {
+                int missing = 0;
+                while (!writer.isDone()){
+                    for (int id = 1; id <= 1000; id++){
+                        if (unit.get(id) == null){
+                            missing++;
+                        }
+                    }
+                }
+                return missing;
+            });
+            writer.get(30, TimeUnit.SECONDS);
+            assertEquals(0, misses.get(30, TimeUnit.SECONDS));
+            assertEquals(100_000, unit.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.shop.store;
+
+import com.shop.journal.Journal;
+import com.shop.models.Basket;
+import com.shop.models.Product;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ReservationReaperTest {
+
+    ProductCatalog catalog = new ProductCatalog();
+
+    StockReservations stock = new StockReservations(catalog, 16);
+
+    BasketRepository baskets = new BasketRepository();
+
+    AtomicLong clock = new AtomicLong();
+
+    List<Integer> expired = new ArrayList<>();
+
+    ReservationReaper unit = new ReservationReaper(baskets, stock, Journal.NONE, (userId, units) -> expired.add(userId), 60, 1, TimeUnit.SECONDS, clock::get);
+
+    @Test
+    void should_release_idle_basket_after_ttl(){
+        Basket basket = basketWith(1001, 1, 3);
+        unit.touch(basket);
+
+        advanceSeconds(59);
+        assertEquals(0, unit.advance());
+        assertEquals(7, catalog.get(1).getQuantity());
+
+        advanceSeconds(1);
+        assertEquals(1, unit.advance());
+        assertEquals(10, catalog.get(1).getQuantity());
+        assertTrue(basket.getItems().isEmpty());
+        assertEquals(1001, expired.get(0));
+        assertEquals(0, unit.size());
+    }
+
+    @Test
+    void should_keep_basket_touched_before_deadline(){
+        Basket basket = basketWith(1001, 1, 3);
+        unit.touch(basket);
+        advanceSeconds(50);
+        unit.advance();
+        unit.touch(basket);
+
+        advanceSeconds(50);
+        assertEquals(0, unit.advance());
+        assertEquals(7, catalog.get(1).getQuantity());
+
+        advanceSeconds(10);
+        assertEquals(1, unit.advance());
+        assertEquals(10, catalog.get(1).getQuantity());
+    }
+
+    @Test
+    void should_forget_basket_emptied_before_deadline(){
+        Basket basket = basketWith(1001, 1, 3);
+        unit.touch(basket);
+        basket.clear();
+        unit.touch(basket);
+
+        advanceSeconds(120);
+        assertEquals(0, unit.advance());
+        assertEquals(7, catalog.get(1).getQuantity());
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    void should_release_baskets_due_after_several_wheel_rotations(){
+        ReservationReaper longTtl = new ReservationReaper(baskets, stock, Journal.NONE, (userId, units) -> expired.add(userId), 2000, 1, TimeUnit.SECONDS, clock::get);
+        longTtl.touch(basketWith(1001, 1, 3));
+        for (int second = 0; second < 1999; second++){
+            advanceSeconds(1);
+            assertEquals(0, longTtl.advance());
+        }
+        advanceSeconds(1);
+        assertEquals(1, longTtl.advance());
+    }
+
+    @Test
+    void should_not_expire_anything_when_disabled(){
+        ReservationReaper disabled = ReservationReaper.disabled();
+        assertFalse(disabled.isEnabled());
+        disabled.touch(basketWith(1001, 1, 3));
+        assertEquals(0, disabled.size());
+    }
+
+    @Test
+    void should_release_stock_outside_basket_monitor(){
+        Basket basket = basketWith(1001, 1, 3);
+        List<Boolean> heldMonitor = new ArrayList<>();
+        StockReservations remoteStock = new StockReservations(catalog, 16) {
+            @Override
+            public void release(int productId, int quantity) {
+                heldMonitor.add(Thread.holdsLock(basket));
+                super.release(productId, quantity);
+            }
+        };
+        ReservationReaper reaper = new ReservationReaper(baskets, remoteStock, Journal.NONE, (userId, units) -> expired.add(userId), 60, 1, TimeUnit.SECONDS, clock::get);
+        reaper.touch(basket);
+
+        advanceSeconds(60);
+        assertEquals(1, reaper.advance());
+        assertEquals(10, catalog.get(1).getQuantity());
+        assertEquals(1, heldMonitor.size());
+        assertFalse(heldMonitor.get(0));
+    }
+
+    private Basket basketWith(int userId, int productId, int quantity){
+        if (catalog.get(productId) == null){
+            catalog.add(Product.builder().id(productId).name("Product " + productId).price(1.0).quantity(10).build());
+        }
+        assertTrue(stock.reserve(productId, quantity));
+        Basket basket = baskets.getOrCreate(userId);
+        basket.getItems().merge(productId, quantity, Integer::sum);
+        return basket;
+    }
+
+    private void advanceSeconds(long seconds){
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+    }
+}
@@ -0,0 +1,137 @@
+package com.shop.store;
+
+import com.shop.models.Product;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StockReservationsTest {
+
+    private static final int THREADS = 16;
+
+    ProductCatalog catalog = new ProductCatalog();
+
+    StockReservations unit = new StockReservations(catalog, 16);
+
+    @Test
+    void should_not_reserve_more_than_available(){
+        catalog.add(product(1, 5));
+        assertFalse(unit.reserve(1, 6));
+        assertTrue(unit.reserve(1, 5));
+        assertFalse(unit.reserve(1, 1));
+        assertEquals(0, catalog.get(1).getQuantity());
+        assertFalse(unit.reserve(2, 1));
+    }
+
+    @Test
+    void should_reject_non_positive_quantities(){
+        catalog.add(product(1, 5));
+        assertThrows(IllegalArgumentException.class, () -> unit.reserve(1, 0));
+        assertThrows(IllegalArgumentException.class, () -> unit.reserve(1, -3));
+        assertThrows(IllegalArgumentException.class, () -> unit.reserveAll(new int[]{1}, new int[]{-3}));
+        assertThrows(IllegalArgumentException.class, () -> unit.release(1, -3));
+        assertEquals(5, catalog.get(1).getQuantity());
+    }
+
+    @Test
+    void should_reject_repeated_product_ids(){
+        catalog.add(product(1, 5));
+        catalog.add(product(2, 5));
+        assertThrows(IllegalArgumentException.class, () -> unit.reserveAll(new int[]{1, 2, 1}, new int[]{5, 1, 5}));
+        assertEquals(5, catalog.get(1).getQuantity());
+        assertEquals(5, catalog.get(2).getQuantity());
+    }
+
+    @Test
+    void should_not_oversell_under_contention() throws Exception {
+        catalog.add(product(1, 1000));
+        List<Integer> reserved = runConcurrently(() -> {
+            int count = 0;
+            for (int i = 0; i < 10000; i++){
+                if (unit.reserve(1, 1)){
+                    count++;
+                }
+            }
+            return count;
+        });
+        assertEquals(1000, reserved.stream().mapToInt(Integer::intValue).sum());
+        assertEquals(0, catalog.get(1).getQuantity());
+    }
+
+    @Test
+    void should_conserve_stock_with_concurrent_reserve_and_release() throws Exception {
+        int productCount = 64;
+        for (int id = 1; id <= productCount; id++){
+            catalog.add(product(id, 50));
+        }
+        List<Integer> held = runConcurrently(() -> {
+            int[] holding = new int[productCount + 1];
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 20000; i++){
+                int id = 1 + random.nextInt(productCount);
+                int quantity = 1 + random.nextInt(5);
+                if (holding[id] >= quantity && random.nextBoolean()){
+                    unit.release(id, quantity);
+                    holding[id] -= quantity;
+                } else if (unit.reserve(id, quantity)){
+                    holding[id] += quantity;
+                }
+                if (catalog.get(id).getQuantity() < 0){
+                    throw new IllegalStateException("Negative stock for product " + id);
+                }
+            }
+            int total = 0;
+            for (int quantity : holding){
+                total += quantity;
+            }
+            return total;
+        });
+        int inStock = 0;
+        for (int id = 1; id <= productCount; id++){
+            inStock += catalog.get(id).getQuantity();
+        }
+        assertEquals(productCount * 50, inStock + held.stream().mapToInt(Integer::intValue).sum());
+    }
+
+    private List<Integer> runConcurrently(Callable<Integer> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++){
+            futures.add(executor.submit(() -> {
+                start.await();
+                return task.call();
+            }));
+        }
+        start.countDown();
+        List<Integer> results = new ArrayList<>();
+        for (Future<Integer> future : futures){
+            results.add(future.get(60, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        return results;
+    }
+
+    private Product product(int id, int quantity){
+        return Product.builder()
+                .id(id)
+                .name("Product " + id)
+                .price(1.0)
+                .description("Product " + id)
+                .quantity(quantity)
+                .build();
+    }
+}